@@ -0,0 +1,215 @@
+package com.example.android.pets;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Counts the rows the catalog list binds when a page is loaded again, and times scrolling
+ * through the loaded pages, on a list laid out at the size of a phone screen.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetPagedAdapterTest
+{
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetPagedAdapterTest.class.getSimpleName();
+
+    // Size of the list, in pixels
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 1920;
+
+    private static final int PAGES = 20;
+
+    // Distance the list moves in a single frame of a quick scroll, in pixels
+    private static final int SCROLL_STEP = 40;
+    private static final int SCROLL_STEPS = 500;
+
+    // Time a frame has at 60 frames per second
+    private static final long FRAME_BUDGET_MS = 16;
+
+    // Longest the diff of a reloaded page may take to be worked out
+    private static final long DIFF_TIMEOUT_MS = 5000;
+
+    private static final String[] COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED
+    };
+
+    private Instrumentation mInstrumentation;
+    private CountingAdapter mAdapter;
+    private RecyclerView mList;
+
+    /**
+     * Paged adapter that counts the rows it binds.
+     */
+    private static class CountingAdapter extends PetPagedAdapter
+    {
+        int binds;
+
+        CountingAdapter(Context context)
+        {
+            super(context, null);
+        }
+
+        @Override
+        public void onBindViewHolder(ViewHolder holder, int position)
+        {
+            binds++;
+            super.onBindViewHolder(holder, position);
+        }
+    }
+
+    @Before
+    public void setUp()
+    {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mInstrumentation.runOnMainSync(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Context context = new ContextThemeWrapper(
+                        InstrumentationRegistry.getTargetContext(), R.style.AppTheme);
+                mAdapter = new CountingAdapter(context);
+                mList = new RecyclerView(context);
+                mList.setLayoutManager(new LinearLayoutManager(context));
+                // Only count the binds of the layout, not the extra holders animations bind
+                mList.setItemAnimator(null);
+                mList.setAdapter(mAdapter);
+
+                for (int page = 0; page < PAGES; page++)
+                {
+                    mAdapter.swapPage(page, newPage(page, null));
+                }
+                layoutList();
+            }
+        });
+    }
+
+    @Test
+    public void reloadedPageOnlyRebindsChangedRow() throws InterruptedException
+    {
+        final CountDownLatch changed = new CountDownLatch(1);
+        mInstrumentation.runOnMainSync(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver()
+                {
+                    @Override
+                    public void onItemRangeChanged(int positionStart, int itemCount)
+                    {
+                        changed.countDown();
+                    }
+                });
+                mAdapter.binds = 0;
+
+                // The first page comes back with its second pet renamed
+                mAdapter.swapPage(0, newPage(0, "Renamed"));
+            }
+        });
+        assertTrue("Diff of the page was not applied",
+                changed.await(DIFF_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        final int[] binds = new int[2];
+        mInstrumentation.runOnMainSync(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                layoutList();
+                binds[0] = mAdapter.binds;
+
+                // What a reload that does not know which rows changed binds
+                mAdapter.binds = 0;
+                mAdapter.notifyDataSetChanged();
+                layoutList();
+                binds[1] = mAdapter.binds;
+            }
+        });
+
+        Log.i(LOG_TAG, "Reloading a page with a single changed pet bound " + binds[0] +
+                " rows, binding every visible row bound " + binds[1]);
+        assertEquals(1, binds[0]);
+        assertTrue(binds[1] > 1);
+    }
+
+    @Test
+    public void scrollStepsFitInFrame()
+    {
+        final long[] steps = new long[SCROLL_STEPS];
+        final int[] binds = new int[1];
+        mInstrumentation.runOnMainSync(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mAdapter.binds = 0;
+                for (int i = 0; i < SCROLL_STEPS; i++)
+                {
+                    long start = System.nanoTime();
+                    mList.scrollBy(0, SCROLL_STEP);
+                    steps[i] = System.nanoTime() - start;
+                }
+                binds[0] = mAdapter.binds;
+            }
+        });
+
+        Arrays.sort(steps);
+        long medianUs = steps[SCROLL_STEPS / 2] / 1000;
+        long p90Us = steps[SCROLL_STEPS * 9 / 10] / 1000;
+        String result = "Scrolling " + SCROLL_STEPS + " steps of " + SCROLL_STEP +
+                " px bound " + binds[0] + " rows, a step took " + medianUs +
+                " us at the median and " + p90Us + " us at the 90th percentile";
+        Log.i(LOG_TAG, result);
+        assertTrue(result, binds[0] > 0);
+        assertTrue(result, p90Us <= TimeUnit.MILLISECONDS.toMicros(FRAME_BUDGET_MS));
+    }
+
+    /**
+     * Lays the list out at its full size, which binds the rows it shows.
+     */
+    private void layoutList()
+    {
+        mList.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        mList.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    /**
+     * Returns a full page of pets, with the second pet named the given name if there is one.
+     */
+    private static MatrixCursor newPage(int page, String renamed)
+    {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, PetPagedAdapter.PAGE_SIZE);
+        for (int row = 0; row < PetPagedAdapter.PAGE_SIZE; row++)
+        {
+            long id = page * PetPagedAdapter.PAGE_SIZE + row + 1;
+            String name = renamed != null && row == 1 ? renamed : "Pet " + id;
+            cursor.addRow(new Object[] { id, name, row % 3 == 0 ? null : "Breed " + (row % 7) });
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.android.pets.data;
+
+import android.database.ContentObserver;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the change notifications it gets. It has no handler, so the notifications are
+ * counted on the thread they are delivered on.
+ */
+class CountingContentObserver extends ContentObserver
+{
+    private final AtomicInteger mChangeCount = new AtomicInteger();
+
+    CountingContentObserver()
+    {
+        super(null);
+    }
+
+    @Override
+    public void onChange(boolean selfChange)
+    {
+        mChangeCount.incrementAndGet();
+    }
+
+    int getChangeCount()
+    {
+        return mChangeCount.get();
+    }
+
+    void reset()
+    {
+        mChangeCount.set(0);
+    }
+}
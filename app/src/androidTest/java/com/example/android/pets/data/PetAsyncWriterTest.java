@@ -0,0 +1,168 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.net.Uri;
+import android.os.Looper;
+import android.os.StrictMode;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Makes writes through the {@link PetAsyncWriter} and the {@link PetWriteBehindQueue} from the
+ * main thread with a StrictMode policy that kills the process on any disk read or write there,
+ * so the tests only pass if all of the disk I/O happens on the writer thread.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetAsyncWriterTest
+{
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private PetProvider mProvider;
+    private PetAsyncWriter mWriter;
+    private StrictMode.ThreadPolicy mOldPolicy;
+
+    @Before
+    public void setUp()
+    {
+        mProvider = PetProviderTestUtils.newProvider(PetProviderTestUtils.newContext());
+
+        // Route the writes to the test provider
+        mWriter = new PetAsyncWriter(PetProviderTestUtils.newResolver(mProvider));
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mOldPolicy = StrictMode.getThreadPolicy();
+                StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                        .detectDiskReads()
+                        .detectDiskWrites()
+                        .penaltyLog()
+                        .penaltyDeath()
+                        .build());
+            }
+        });
+    }
+
+    @After
+    public void tearDown()
+    {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                StrictMode.setThreadPolicy(mOldPolicy);
+            }
+        });
+    }
+
+    @Test
+    public void writesDoNoDiskIoOnMainThread() throws Exception
+    {
+        final Pet pet = new Pet("Rex", "Terrier", PetEntry.GENDER_MALE, 7);
+        // The test database starts empty, so the pet gets the first ID
+        final Uri firstPetUri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, 1);
+
+        final CountDownLatch done = new CountDownLatch(3);
+        final AtomicInteger rows = new AtomicInteger();
+        final AtomicBoolean allOnMainThread = new AtomicBoolean(true);
+        final PetAsyncWriter.Callback callback = new PetAsyncWriter.Callback()
+        {
+            @Override
+            public void onWriteComplete(int rowsAffected)
+            {
+                if (Looper.myLooper() != Looper.getMainLooper())
+                {
+                    allOnMainThread.set(false);
+                }
+                rows.addAndGet(rowsAffected);
+                done.countDown();
+            }
+        };
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                mWriter.insert(pet, callback);
+                mWriter.update(firstPetUri,
+                        new Pet("Max", "Terrier", PetEntry.GENDER_MALE, 8), callback);
+                mWriter.delete(firstPetUri, callback);
+            }
+        });
+
+        assertTrue("Writes did not complete", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(3, rows.get());
+        assertTrue("Callback was not called on the main thread", allOnMainThread.get());
+        assertEquals(0, PetProviderTestUtils.countPets(mProvider));
+    }
+
+    /**
+     * Queues writes that are flushed right away, and one that is flushed once the window of
+     * the queue ends, both from the main thread.
+     */
+    @Test
+    public void queuedWritesDoNoDiskIoOnMainThread() throws Exception
+    {
+        final PetWriteBehindQueue queue = new PetWriteBehindQueue(
+                PetProviderTestUtils.newResolver(mProvider),
+                PetWriteBehindQueue.DEFAULT_WINDOW_MS, PetWriteBehindQueue.DEFAULT_MAX_ENTRIES);
+        // The test database starts empty, so the pet gets the first ID
+        final Uri firstPetUri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, 1);
+
+        final CountDownLatch done = new CountDownLatch(3);
+        final AtomicInteger rows = new AtomicInteger();
+        final AtomicBoolean allOnMainThread = new AtomicBoolean(true);
+        final PetAsyncWriter.Callback callback = new PetAsyncWriter.Callback()
+        {
+            @Override
+            public void onWriteComplete(int rowsAffected)
+            {
+                if (Looper.myLooper() != Looper.getMainLooper())
+                {
+                    allOnMainThread.set(false);
+                }
+                rows.addAndGet(rowsAffected);
+                done.countDown();
+            }
+        };
+
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                queue.insert(new Pet("Rex", "Terrier", PetEntry.GENDER_MALE, 7), callback);
+                queue.update(firstPetUri,
+                        new Pet("Max", "Terrier", PetEntry.GENDER_MALE, 8), callback);
+                queue.flush();
+
+                // Left for the window to flush
+                queue.insert(new Pet("Tom", null, PetEntry.GENDER_UNKNOWN, 3), callback);
+            }
+        });
+
+        assertTrue("Writes did not complete", done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(3, rows.get());
+        assertTrue("Callback was not called on the main thread", allOnMainThread.get());
+        assertEquals(2, PetProviderTestUtils.countPets(mProvider));
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.mock.MockContentResolver;
+
+import com.example.android.pets.data.PetContract.MetricsEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the {@link PetChangeNotifier} merges the notifications of a window, and that a
+ * storm of writes through the provider only wakes the observers of the pets a bounded number
+ * of times.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetChangeNotifierTest
+{
+    // Single inserts in the write storm
+    private static final int STORM_WRITES = 500;
+
+    // Long enough for the notifications of a write to be dispatched and delivered
+    private static final long SETTLE_MS = PetChangeNotifier.DEFAULT_WINDOW_MS * 5;
+
+    /**
+     * Content resolver that records the URIs it is asked to notify.
+     */
+    private static class RecordingContentResolver extends MockContentResolver
+    {
+        final List<Uri> mNotifiedUris = new ArrayList<Uri>();
+
+        @Override
+        public void notifyChange(Uri uri, ContentObserver observer)
+        {
+            mNotifiedUris.add(uri);
+        }
+    }
+
+    @Test
+    public void sameUriIsNotifiedOnce()
+    {
+        RecordingContentResolver resolver = new RecordingContentResolver();
+        PetChangeNotifier notifier = new PetChangeNotifier(resolver, 1000);
+
+        notifier.notifyChange(petUri(1));
+        notifier.notifyChange(petUri(1));
+        notifier.notifyChange(petUri(2));
+        notifier.flush();
+
+        assertEquals(Arrays.asList(petUri(1), petUri(2)), resolver.mNotifiedUris);
+        assertEquals(3, notifier.getReceivedCount());
+        assertEquals(2, notifier.getDispatchedCount());
+    }
+
+    @Test
+    public void descendantsOfNotifiedUriAreDropped()
+    {
+        RecordingContentResolver resolver = new RecordingContentResolver();
+        PetChangeNotifier notifier = new PetChangeNotifier(resolver, 1000);
+
+        notifier.notifyChange(petUri(1));
+        notifier.notifyChange(PetEntry.CONTENT_URI);
+        notifier.notifyChange(petUri(2));
+        notifier.flush();
+
+        assertEquals(Arrays.asList(PetEntry.CONTENT_URI), resolver.mNotifiedUris);
+    }
+
+    @Test
+    public void manyUrisAreMergedIntoTheirParent()
+    {
+        RecordingContentResolver resolver = new RecordingContentResolver();
+        PetChangeNotifier notifier = new PetChangeNotifier(resolver, 1000);
+
+        for (int id = 1; id <= PetChangeNotifier.MAX_URIS_PER_WINDOW + 1; id++)
+        {
+            notifier.notifyChange(petUri(id));
+        }
+        notifier.flush();
+
+        assertEquals(Arrays.asList(PetEntry.CONTENT_URI), resolver.mNotifiedUris);
+    }
+
+    @Test
+    public void writeStormNotifiesBoundedTimes()
+    {
+        Context context = PetProviderTestUtils.newContext();
+        ContentResolver resolver = context.getContentResolver();
+        PetProvider provider = PetProviderTestUtils.newProvider(context);
+
+        CountingContentObserver observer = new CountingContentObserver();
+        resolver.registerContentObserver(PetEntry.CONTENT_URI, true, observer);
+        try
+        {
+            long start = SystemClock.elapsedRealtime();
+            for (int i = 0; i < STORM_WRITES; i++)
+            {
+                provider.insert(PetEntry.CONTENT_URI,
+                        PetProviderTestUtils.newPet("Pet " + i, null, PetEntry.GENDER_UNKNOWN, i));
+            }
+            long elapsed = SystemClock.elapsedRealtime() - start;
+            SystemClock.sleep(SETTLE_MS);
+
+            // Every window the storm ran in, and the one it ended in, notify at most a few URIs
+            long windows = elapsed / PetChangeNotifier.DEFAULT_WINDOW_MS + 2;
+            long maxNotifications = windows * PetChangeNotifier.MAX_URIS_PER_WINDOW;
+
+            int notifications = observer.getChangeCount();
+            assertTrue("No notifications", notifications > 0);
+            assertTrue(notifications + " notifications for " + STORM_WRITES + " writes in " +
+                    elapsed + " ms", notifications <= Math.min(maxNotifications, STORM_WRITES / 10));
+
+            assertEquals(STORM_WRITES, readCounter(provider, "notifications.received"));
+            assertEquals(notifications, readCounter(provider, "notifications.dispatched"));
+        }
+        finally
+        {
+            resolver.unregisterContentObserver(observer);
+        }
+    }
+
+    private static Uri petUri(long id)
+    {
+        return ContentUris.withAppendedId(PetEntry.CONTENT_URI, id);
+    }
+
+    /**
+     * Returns the value of the counter with the given name from the metrics of the provider.
+     */
+    private static long readCounter(PetProvider provider, String name)
+    {
+        Cursor cursor = provider.query(MetricsEntry.CONTENT_URI, null, null, null, null);
+        try
+        {
+            int nameColumn = cursor.getColumnIndexOrThrow(MetricsEntry.COLUMN_NAME);
+            int countColumn = cursor.getColumnIndexOrThrow(MetricsEntry.COLUMN_COUNT);
+            while (cursor.moveToNext())
+            {
+                if (name.equals(cursor.getString(nameColumn)))
+                {
+                    return cursor.getLong(countColumn);
+                }
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+        fail("No counter " + name);
+        return 0;
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Upgrades databases of the older schema versions to the current one, and checks that every
+ * pet is kept and the database is intact.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetDbHelperMigrationTest
+{
+    // Schema of version 1, the pets table only
+    private static final String SQL_CREATE_V1 =
+            "CREATE TABLE pets (_id INTEGER PRIMARY KEY AUTOINCREMENT,name TEXT NOT NULL," +
+                    "breed TEXT,gender INTEGER NOT NULL,weight INTEGER NOT NULL DEFAULT 0);";
+
+    // Schema of version 2 added the secondary indexes. The build that introduced it still
+    // dropped the table on upgrade, so its databases can hold pets of their own.
+    private static final String[] SQL_CREATE_V2_INDEXES = {
+            "CREATE INDEX IF NOT EXISTS pets_name_idx ON pets (name COLLATE NOCASE);",
+            "CREATE INDEX IF NOT EXISTS pets_breed_idx ON pets (breed);",
+            "CREATE INDEX IF NOT EXISTS pets_gender_weight_idx ON pets (gender,weight);"
+    };
+
+    // Number of pets in the large version 1 database, and the time upgrading it may take
+    private static final int LARGE_DATABASE_ROWS = 100000;
+    private static final long LARGE_MIGRATION_BUDGET_MS = 20000;
+
+    private Context mContext;
+    private PetDbHelper mDbHelper;
+
+    @Before
+    public void setUp()
+    {
+        mContext = PetProviderTestUtils.newContext();
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (mDbHelper != null)
+        {
+            mDbHelper.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion1KeepsPets()
+    {
+        SQLiteDatabase db = createDatabase(1);
+        db.execSQL(SQL_CREATE_V1);
+        insertPets(db, 100);
+        db.close();
+
+        SQLiteDatabase upgraded = openWithHelper();
+
+        assertUpgraded(upgraded, 100);
+    }
+
+    @Test
+    public void upgradeOfLargeVersion1DatabaseIsWithinBudget()
+    {
+        SQLiteDatabase db = createDatabase(1);
+        db.execSQL(SQL_CREATE_V1);
+        insertPets(db, LARGE_DATABASE_ROWS);
+        db.close();
+
+        long start = SystemClock.elapsedRealtime();
+        SQLiteDatabase upgraded = openWithHelper();
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        assertUpgraded(upgraded, LARGE_DATABASE_ROWS);
+        assertTrue("Upgrade of " + LARGE_DATABASE_ROWS + " pets took " + elapsed + " ms",
+                elapsed <= LARGE_MIGRATION_BUDGET_MS);
+    }
+
+    @Test
+    public void failedUpgradeKeepsOldVersion()
+    {
+        // A full-text table left in the way makes the step to version 3 fail, after the step
+        // to version 2 already created the indexes
+        SQLiteDatabase db = createDatabase(1);
+        db.execSQL(SQL_CREATE_V1);
+        db.execSQL("CREATE TABLE " + PetDbHelper.FTS_TABLE_NAME + " (docid INTEGER);");
+        insertPets(db, 100);
+        db.close();
+
+        try
+        {
+            openWithHelper();
+            fail("Upgrade with a conflicting table succeeded");
+        }
+        catch (SQLiteException expected)
+        {
+        }
+        mDbHelper.close();
+
+        SQLiteDatabase old = mContext.openOrCreateDatabase(PetDbHelper.DATABASE_NAME, 0, null);
+        try
+        {
+            assertEquals(1, old.getVersion());
+            assertEquals(100, DatabaseUtils.queryNumEntries(old, PetEntry.TABLE_NAME));
+            assertEquals(0, DatabaseUtils.longForQuery(old, "SELECT COUNT(*) FROM sqlite_master " +
+                    "WHERE type = 'index' AND name = 'pets_name_idx'", null));
+        }
+        finally
+        {
+            old.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion2KeepsPets()
+    {
+        SQLiteDatabase db = createDatabase(2);
+        db.execSQL(SQL_CREATE_V1);
+        for (String sql : SQL_CREATE_V2_INDEXES)
+        {
+            db.execSQL(sql);
+        }
+        insertPets(db, 100);
+        db.close();
+
+        SQLiteDatabase upgraded = openWithHelper();
+
+        assertUpgraded(upgraded, 100);
+    }
+
+    /**
+     * Creates the test database at the given schema version, without any tables.
+     */
+    private SQLiteDatabase createDatabase(int version)
+    {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(PetDbHelper.DATABASE_NAME, 0, null);
+        db.setVersion(version);
+        return db;
+    }
+
+    /**
+     * Inserts the given number of pets in a single transaction, the pet with the ID i gets
+     * the name "Pet i" and the weight i % 40.
+     */
+    private static void insertPets(SQLiteDatabase db, int count)
+    {
+        SQLiteStatement insert = db.compileStatement(
+                "INSERT INTO pets (_id, name, breed, gender, weight) VALUES (?, ?, ?, ?, ?)");
+        db.beginTransaction();
+        try
+        {
+            for (int id = 1; id <= count; id++)
+            {
+                insert.bindLong(1, id);
+                insert.bindString(2, "Pet " + id);
+                if (id % 3 == 0)
+                {
+                    insert.bindNull(3);
+                }
+                else
+                {
+                    insert.bindString(3, "Breed " + (id % 7));
+                }
+                insert.bindLong(4, id % 3);
+                insert.bindLong(5, id % 40);
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        }
+        finally
+        {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+
+    /**
+     * Opens the test database through the helper, which upgrades it to the current version.
+     */
+    private SQLiteDatabase openWithHelper()
+    {
+        mDbHelper = new PetDbHelper(mContext);
+        return mDbHelper.getWritableDatabase();
+    }
+
+    /**
+     * Checks that the database is at the current version, intact, and still holds all of the
+     * pets {@link #insertPets} inserted, both in the table and in the full-text index.
+     */
+    private static void assertUpgraded(SQLiteDatabase db, int count)
+    {
+        assertEquals(PetDbHelper.DATABASE_VERSION, db.getVersion());
+        assertEquals("ok", DatabaseUtils.stringForQuery(db, "PRAGMA integrity_check", null));
+
+        assertEquals(count, DatabaseUtils.queryNumEntries(db, PetEntry.TABLE_NAME));
+        assertEquals(count, DatabaseUtils.queryNumEntries(db, PetDbHelper.FTS_TABLE_NAME));
+
+        // Every pet still has its own name and weight
+        assertEquals(count, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM pets WHERE " +
+                "name = 'Pet ' || _id AND weight = _id % 40", null));
+        assertEquals(3, DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master " +
+                "WHERE type = 'index' AND name IN " +
+                "('pets_name_idx', 'pets_breed_idx', 'pets_gender_weight_idx')", null));
+    }
+}
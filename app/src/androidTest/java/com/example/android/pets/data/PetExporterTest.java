@@ -0,0 +1,109 @@
+package com.example.android.pets.data;
+
+import android.os.ParcelFileDescriptor;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Exports 1M pets through the {@link PetProvider} and measures the MB per second and the most
+ * heap the export takes, which must stay flat however many pets there are.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetExporterTest
+{
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetExporterTest.class.getSimpleName();
+
+    private static final int ROWS = 1000000;
+
+    // Pets inserted with a single bulk insert while filling the table
+    private static final int INSERT_CHUNK = 10000;
+
+    // Most heap the export may take on top of what was in use before it, far less than the
+    // pets would take if they were held in memory
+    private static final long HEAP_BUDGET_BYTES = 32 * 1024 * 1024;
+
+    // Fewest bytes every exported pet takes, its ID, name and separators
+    private static final int MIN_BYTES_PER_PET = 10;
+
+    private static PetProvider sProvider;
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+        sProvider = PetProviderTestUtils.newProvider(PetProviderTestUtils.newContext());
+        for (int start = 0; start < ROWS; start += INSERT_CHUNK)
+        {
+            sProvider.bulkInsert(PetEntry.CONTENT_URI,
+                    PetProviderTestUtils.newPets(Math.min(INSERT_CHUNK, ROWS - start)));
+        }
+    }
+
+    @Test
+    public void exportsMillionPetsAsCsvInFlatHeap() throws Exception
+    {
+        assertExportsInFlatHeap(PetContract.FORMAT_CSV);
+    }
+
+    @Test
+    public void exportsMillionPetsAsJsonInFlatHeap() throws Exception
+    {
+        assertExportsInFlatHeap(PetContract.FORMAT_JSON);
+    }
+
+    /**
+     * Reads the whole export in the format out of its pipe, and checks how much heap it took.
+     */
+    private static void assertExportsInFlatHeap(String format) throws Exception
+    {
+        PetProviderTestUtils.HeapSampler heap = new PetProviderTestUtils.HeapSampler();
+        long start = System.nanoTime();
+        long bytes = readAll(sProvider.openFile(PetEntry.buildExportUri(format), "r"));
+        long elapsedMs = Math.max((System.nanoTime() - start) / 1000000, 1);
+        long peakHeapBytes = heap.stop();
+
+        String megabytesPerSecond = String.format(Locale.US, "%.1f",
+                bytes * 1000.0 / elapsedMs / (1024 * 1024));
+        String summary = "Exported " + ROWS + " pets as " + format + ", " + bytes / 1024 +
+                " KB in " + elapsedMs + " ms, " + megabytesPerSecond +
+                " MB/s, with a peak heap of " + peakHeapBytes / 1024 + " KB";
+        Log.i(LOG_TAG, summary);
+        assertTrue(summary, bytes >= (long) ROWS * MIN_BYTES_PER_PET);
+        assertTrue(summary, peakHeapBytes < HEAP_BUDGET_BYTES);
+    }
+
+    /**
+     * Reads the pipe to the end without keeping what it read, and returns the number of bytes.
+     */
+    private static long readAll(ParcelFileDescriptor pipe) throws IOException
+    {
+        InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pipe);
+        try
+        {
+            byte[] buffer = new byte[8192];
+            long bytes = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1)
+            {
+                bytes += read;
+            }
+            return bytes;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.android.pets.data;
+
+import android.os.ParcelFileDescriptor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Imports a CSV file of 1M pets and measures the rows per second and the most heap the import
+ * takes, which must stay flat however large the file is.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetImporterTest
+{
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetImporterTest.class.getSimpleName();
+
+    private static final int ROWS = 1000000;
+
+    // Pets inserted with a single bulk insert while filling the table
+    private static final int INSERT_CHUNK = 10000;
+
+    // Most heap the import may take on top of what was in use before it, far less than the
+    // pets of the file would take if they were held in memory
+    private static final long HEAP_BUDGET_BYTES = 32 * 1024 * 1024;
+
+    private File mCsvFile;
+
+    @Before
+    public void setUp()
+    {
+        mCsvFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "test_pets.csv");
+    }
+
+    @After
+    public void tearDown()
+    {
+        mCsvFile.delete();
+    }
+
+    @Test
+    public void importsMillionPetsInFlatHeap() throws Exception
+    {
+        writeCsvFile();
+
+        // Import into an empty database
+        PetProvider provider = PetProviderTestUtils.newProvider(
+                PetProviderTestUtils.newContext());
+        PetImporter importer = new PetImporter(PetProviderTestUtils.newResolver(provider), null);
+
+        InputStream in = new BufferedInputStream(new FileInputStream(mCsvFile));
+        PetImporter.Result result;
+        long peakHeapBytes;
+        try
+        {
+            PetProviderTestUtils.HeapSampler heap = new PetProviderTestUtils.HeapSampler();
+            result = importer.importCsv(in);
+            peakHeapBytes = heap.stop();
+        }
+        finally
+        {
+            in.close();
+        }
+
+        String summary = "Imported " + result.importedRows + " pets from " +
+                mCsvFile.length() / 1024 + " KB of CSV in " + result.elapsedMs + " ms, " +
+                Math.round(result.getRowsPerSecond()) + " rows/s, with a peak heap of " +
+                peakHeapBytes / 1024 + " KB";
+        Log.i(LOG_TAG, summary);
+        assertEquals(ROWS, result.importedRows);
+        assertEquals(0, result.rejectedRows);
+        assertEquals(ROWS, PetProviderTestUtils.countPets(provider));
+        assertTrue(summary, peakHeapBytes < HEAP_BUDGET_BYTES);
+    }
+
+    /**
+     * Fills a database with the pets and exports them into the CSV file to import.
+     */
+    private void writeCsvFile() throws IOException
+    {
+        PetProvider provider = PetProviderTestUtils.newProvider(
+                PetProviderTestUtils.newContext());
+        for (int start = 0; start < ROWS; start += INSERT_CHUNK)
+        {
+            provider.bulkInsert(PetEntry.CONTENT_URI,
+                    PetProviderTestUtils.newPets(Math.min(INSERT_CHUNK, ROWS - start)));
+        }
+
+        InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(provider.openFile(
+                PetEntry.buildExportUri(PetContract.FORMAT_CSV), "r"));
+        OutputStream out = new FileOutputStream(mCsvFile);
+        try
+        {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+            {
+                out.write(buffer, 0, read);
+            }
+        }
+        finally
+        {
+            out.close();
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.pets.PetPagedAdapter;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Times reading the keyset page right after the first page, and page 5000, of the catalog,
+ * and checks that the deep page is about as fast as the shallow one, in both sort orders.
+ * The first page itself has no pet to start after, the catalog reads it from offset 0.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetKeysetPaginationTest
+{
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetKeysetPaginationTest.class.getSimpleName();
+
+    private static final int PAGE_SIZE = PetPagedAdapter.PAGE_SIZE;
+    private static final int DEEP_PAGE = 5000;
+
+    // Enough pets for a full page after the deep page
+    private static final int ROWS = (DEEP_PAGE + 1) * PAGE_SIZE;
+
+    // Pets inserted with a single bulk insert while filling the table
+    private static final int INSERT_CHUNK = 10000;
+
+    // Reads of every page, the median is compared
+    private static final int RUNS = 21;
+
+    // Slack on top of the latency of the shallow page, for the noise of a single fast read
+    private static final long SLACK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final String[] PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME
+    };
+
+    private static PetProvider sProvider;
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+        sProvider = PetProviderTestUtils.newProvider(PetProviderTestUtils.newContext());
+        for (int start = 0; start < ROWS; start += INSERT_CHUNK)
+        {
+            sProvider.bulkInsert(PetEntry.CONTENT_URI,
+                    PetProviderTestUtils.newPets(Math.min(INSERT_CHUNK, ROWS - start)));
+        }
+    }
+
+    @Test
+    public void deepPageByIdIsAsFastAsShallowPage()
+    {
+        long firstAnchor = readAnchor(PetEntry.SORT_ORDER_ID, 1).getId();
+        long deepAnchor = readAnchor(PetEntry.SORT_ORDER_ID, DEEP_PAGE - 1).getId();
+
+        long firstNanos = medianPageNanos(PetEntry.buildKeysetUri(firstAnchor, PAGE_SIZE));
+        long deepNanos = medianPageNanos(PetEntry.buildKeysetUri(deepAnchor, PAGE_SIZE));
+        long offsetNanos = medianPageNanos(PetEntry.buildPageUri((DEEP_PAGE - 1) * PAGE_SIZE,
+                PAGE_SIZE), PetEntry.SORT_ORDER_ID);
+
+        assertConstantLatency("id", firstNanos, deepNanos, offsetNanos);
+    }
+
+    @Test
+    public void deepPageByNameIsAsFastAsShallowPage()
+    {
+        Pet firstAnchor = readAnchor(PetEntry.SORT_ORDER_NAME, 1);
+        Pet deepAnchor = readAnchor(PetEntry.SORT_ORDER_NAME, DEEP_PAGE - 1);
+
+        long firstNanos = medianPageNanos(PetEntry.buildKeysetUri(firstAnchor.getName(),
+                firstAnchor.getId(), PAGE_SIZE));
+        long deepNanos = medianPageNanos(PetEntry.buildKeysetUri(deepAnchor.getName(),
+                deepAnchor.getId(), PAGE_SIZE));
+        long offsetNanos = medianPageNanos(PetEntry.buildPageUri((DEEP_PAGE - 1) * PAGE_SIZE,
+                PAGE_SIZE), PetEntry.SORT_ORDER_NAME);
+
+        assertConstantLatency("name", firstNanos, deepNanos, offsetNanos);
+    }
+
+    /**
+     * Returns the last pet of the given number of full pages in the sort order, the pet the
+     * keyset page after them starts after. Read with an offset, outside of the timing.
+     */
+    private static Pet readAnchor(String sortOrder, int pages)
+    {
+        Cursor cursor = sProvider.query(PetEntry.buildPageUri(pages * PAGE_SIZE - 1, 1),
+                PROJECTION, null, null, sortOrder);
+        try
+        {
+            assertTrue(cursor.moveToFirst());
+            return new Pet(cursor.getLong(0), cursor.getString(1), null,
+                    PetEntry.GENDER_UNKNOWN, 0);
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+    private static long medianPageNanos(Uri pageUri)
+    {
+        return medianPageNanos(pageUri, null);
+    }
+
+    /**
+     * Returns the median time it takes to query the page and read all of its rows.
+     */
+    private static long medianPageNanos(Uri pageUri, String sortOrder)
+    {
+        long[] runs = new long[RUNS];
+        for (int i = 0; i < RUNS; i++)
+        {
+            long start = System.nanoTime();
+            Cursor cursor = sProvider.query(pageUri, PROJECTION, null, null, sortOrder);
+            try
+            {
+                assertEquals(PAGE_SIZE, cursor.getCount());
+            }
+            finally
+            {
+                cursor.close();
+            }
+            runs[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(runs);
+        return runs[RUNS / 2];
+    }
+
+    private static void assertConstantLatency(String order, long firstNanos, long deepNanos,
+                                              long offsetNanos)
+    {
+        String result = "Keyset pages by " + order + ": page 2 took " + firstNanos / 1000 +
+                " us, page " + DEEP_PAGE + " took " + deepNanos / 1000 +
+                " us, the same page by offset took " + offsetNanos / 1000 + " us";
+        Log.i(LOG_TAG, result);
+        assertTrue(result, deepNanos <= 4 * firstNanos + SLACK_NANOS);
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.android.pets.data;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * Counts the objects the log calls of the data layer allocate when their level is off, which
+ * must be none, against building the same messages without the guard.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetLogTest
+{
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetLogTest.class.getSimpleName();
+
+    private static final int CALLS = 10000;
+
+    // Keeps the messages built without a guard, so they are not optimized away
+    private static volatile String sMessage;
+
+    @Test
+    public void disabledLevelAllocatesNothing()
+    {
+        // The verbose level is off by default, the insert path logs at it
+        assumeFalse(PetLog.V);
+
+        int gatedAllocations = PetProviderTestUtils.countAllocations(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for (long id = 0; id < CALLS; id++)
+                {
+                    if (PetLog.V) PetLog.v(LOG_TAG, "New row ID: " + id);
+                }
+            }
+        });
+
+        int ungatedAllocations = PetProviderTestUtils.countAllocations(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                for (long id = 0; id < CALLS; id++)
+                {
+                    sMessage = "New row ID: " + id;
+                }
+            }
+        });
+
+        Log.i(LOG_TAG, CALLS + " gated verbose calls allocated " + gatedAllocations +
+                " objects, building their messages allocated " + ungatedAllocations);
+        assertTrue(ungatedAllocations >= CALLS);
+        assertEquals(0, gatedAllocations);
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.MetricsEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Measures what the metrics add to the query path of the {@link PetProvider}, and checks that
+ * only the sampled queries are run up front to be timed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetMetricsTest
+{
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetMetricsTest.class.getSimpleName();
+
+    private static final int ROWS = 10000;
+    private static final int PAGE_SIZE = 50;
+    private static final int PAGE_OFFSET = 1000;
+
+    // Queries of every kind, the median is compared
+    private static final int RUNS = 201;
+
+    // Calls of the recording methods that are timed together
+    private static final int RECORDS = 100000;
+
+    // Most a single recorded call may add to it
+    private static final long RECORD_BUDGET_NANOS = 2000;
+
+    // Slack on top of the latency of the plain query, for the noise of a single fast query
+    private static final long SLACK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private static final String[] PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED
+    };
+
+    private PetProvider mProvider;
+    private PetDbHelper mDbHelper;
+
+    @Before
+    public void setUp()
+    {
+        Context context = PetProviderTestUtils.newContext();
+        mProvider = PetProviderTestUtils.newProvider(context);
+        mProvider.bulkInsert(PetEntry.CONTENT_URI, PetProviderTestUtils.newPets(ROWS));
+
+        // Reads the same database as the provider, without going through its metrics
+        mDbHelper = new PetDbHelper(context);
+    }
+
+    @After
+    public void tearDown()
+    {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void recordingCallIsCheap()
+    {
+        PetMetrics metrics = new PetMetrics(0, new String[] { PetEntry.TABLE_NAME });
+
+        long start = System.nanoTime();
+        for (int i = 0; i < RECORDS; i++)
+        {
+            metrics.record(PetMetrics.OP_QUERY, 0, PetMetrics.now(), PAGE_SIZE, false);
+        }
+        long timedNanos = (System.nanoTime() - start) / RECORDS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < RECORDS; i++)
+        {
+            metrics.recordUntimed(PetMetrics.OP_QUERY, 0, false);
+        }
+        long untimedNanos = (System.nanoTime() - start) / RECORDS;
+
+        String result = "Recording a timed call took " + timedNanos + " ns, an untimed call " +
+                untimedNanos + " ns";
+        Log.i(LOG_TAG, result);
+        assertTrue(result, timedNanos <= RECORD_BUDGET_NANOS);
+        assertTrue(result, untimedNanos <= RECORD_BUDGET_NANOS);
+    }
+
+    /**
+     * Compares reading a page through the provider, with its metrics and query log, against
+     * reading the same page straight from the database.
+     */
+    @Test
+    public void metricsAddLittleToQueryPath()
+    {
+        Uri pageUri = PetEntry.buildPageUri(PAGE_OFFSET, PAGE_SIZE);
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        String limit = PAGE_OFFSET + "," + PAGE_SIZE;
+
+        long[] providerRuns = new long[RUNS];
+        long[] databaseRuns = new long[RUNS];
+        for (int i = 0; i < RUNS; i++)
+        {
+            long start = System.nanoTime();
+            readAll(mProvider.query(pageUri, PROJECTION, null, null, PetEntry.SORT_ORDER_ID));
+            providerRuns[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            readAll(db.query(PetEntry.TABLE_NAME, PROJECTION, null, null, null, null,
+                    PetEntry.SORT_ORDER_ID, limit));
+            databaseRuns[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(providerRuns);
+        Arrays.sort(databaseRuns);
+        long providerNanos = providerRuns[RUNS / 2];
+        long databaseNanos = databaseRuns[RUNS / 2];
+
+        String result = "Reading a page took " + providerNanos / 1000 + " us through the " +
+                "provider with metrics, " + databaseNanos / 1000 + " us without";
+        Log.i(LOG_TAG, result);
+        assertTrue(result, providerNanos <= 2 * databaseNanos + SLACK_NANOS);
+    }
+
+    /**
+     * Every query is counted, but only the sampled ones are run up front and add their rows.
+     */
+    @Test
+    public void onlySampledQueriesAreTimed()
+    {
+        int queries = 10 * PetQueryLog.SAMPLE_RATE;
+        Uri pageUri = PetEntry.buildPageUri(PAGE_OFFSET, PAGE_SIZE);
+        for (int i = 0; i < queries; i++)
+        {
+            mProvider.query(pageUri, PROJECTION, null, null, PetEntry.SORT_ORDER_ID).close();
+        }
+
+        Cursor cursor = mProvider.query(MetricsEntry.CONTENT_URI, null, null, null, null);
+        try
+        {
+            int nameColumn = cursor.getColumnIndexOrThrow(MetricsEntry.COLUMN_NAME);
+            while (cursor.moveToNext())
+            {
+                if (cursor.getString(nameColumn).startsWith("query "))
+                {
+                    assertEquals(queries, cursor.getLong(
+                            cursor.getColumnIndexOrThrow(MetricsEntry.COLUMN_COUNT)));
+                    assertEquals(queries / PetQueryLog.SAMPLE_RATE * PAGE_SIZE, cursor.getLong(
+                            cursor.getColumnIndexOrThrow(MetricsEntry.COLUMN_ROWS)));
+                    return;
+                }
+            }
+            fail("No query metrics");
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads all the rows of the cursor, which runs its query, and closes it.
+     */
+    private static void readAll(Cursor cursor)
+    {
+        try
+        {
+            while (cursor.moveToNext())
+            {
+                cursor.getLong(0);
+            }
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link PetProvider#bulkInsert} and {@link PetProvider#applyBatch} write a whole
+ * batch in a single transaction.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetProviderBatchTest
+{
+    private static final int ROWS = 10000;
+
+    private PetProvider mProvider;
+
+    @Before
+    public void setUp()
+    {
+        mProvider = PetProviderTestUtils.newProvider(PetProviderTestUtils.newContext());
+    }
+
+    @Test
+    public void bulkInsertWritesAllRows()
+    {
+        assertEquals(ROWS, mProvider.bulkInsert(PetEntry.CONTENT_URI,
+                PetProviderTestUtils.newPets(ROWS)));
+        assertEquals(ROWS, PetProviderTestUtils.countPets(mProvider));
+    }
+
+    /**
+     * The last row is invalid, so if the rows before it went in with transactions of their
+     * own some of them would be left in the table.
+     */
+    @Test
+    public void bulkInsertWritesAllRowsInOneTransaction()
+    {
+        ContentValues[] pets = PetProviderTestUtils.newPets(ROWS);
+        pets[ROWS - 1].putNull(PetEntry.COLUMN_PET_NAME);
+
+        try
+        {
+            mProvider.bulkInsert(PetEntry.CONTENT_URI, pets);
+            fail("Invalid pet was inserted");
+        }
+        catch (IllegalArgumentException expected)
+        {
+        }
+
+        assertEquals(0, PetProviderTestUtils.countPets(mProvider));
+    }
+
+    @Test
+    public void applyBatchReturnsAllResults() throws Exception
+    {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues pet : PetProviderTestUtils.newPets(3))
+        {
+            operations.add(ContentProviderOperation.newInsert(PetEntry.CONTENT_URI)
+                    .withValues(pet)
+                    .build());
+        }
+
+        ContentProviderResult[] results = mProvider.applyBatch(operations);
+
+        assertEquals(3, results.length);
+        for (ContentProviderResult result : results)
+        {
+            assertNotNull(result.uri);
+        }
+        assertEquals(3, PetProviderTestUtils.countPets(mProvider));
+    }
+
+    @Test
+    public void applyBatchWritesAllOperationsInOneTransaction() throws Exception
+    {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues pet : PetProviderTestUtils.newPets(ROWS))
+        {
+            operations.add(ContentProviderOperation.newInsert(PetEntry.CONTENT_URI)
+                    .withValues(pet)
+                    .build());
+        }
+        operations.add(ContentProviderOperation.newInsert(PetEntry.CONTENT_URI)
+                .withValues(PetProviderTestUtils.newPet("Invalid", null, -1, 0))
+                .build());
+
+        try
+        {
+            mProvider.applyBatch(operations);
+            fail("Invalid pet was inserted");
+        }
+        catch (IllegalArgumentException expected)
+        {
+        }
+
+        assertEquals(0, PetProviderTestUtils.countPets(mProvider));
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Cancels a query on a large table while SQLite is still running it, and checks that the
+ * provider stops it right away instead of running it to the end.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetProviderCancellationTest
+{
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetProviderCancellationTest.class.getSimpleName();
+
+    // Enough pets for the slow query to run far longer than the test, without taking long to insert
+    private static final int ROWS = 20000;
+
+    // Counts the pets of the same weight for every pet. The + keeps SQLite from looking the
+    // weight up in an index, so it reads the whole table once per pet.
+    private static final String SLOW_SELECTION =
+            "(SELECT COUNT(*) FROM " + PetEntry.TABLE_NAME + " AS other WHERE +other." +
+                    PetEntry.COLUMN_PET_WEIGHT + "=" + PetEntry.TABLE_NAME + "." +
+                    PetEntry.COLUMN_PET_WEIGHT + ")<0";
+
+    // How long the query runs before it is cancelled
+    private static final long CANCEL_AFTER_MS = 200;
+
+    // How long the query may take to stop once it is cancelled
+    private static final long CANCEL_BUDGET_MS = 500;
+
+    private PetProvider mProvider;
+
+    @Before
+    public void setUp()
+    {
+        mProvider = PetProviderTestUtils.newProvider(PetProviderTestUtils.newContext());
+        mProvider.bulkInsert(PetEntry.CONTENT_URI, PetProviderTestUtils.newPets(ROWS));
+    }
+
+    @Test
+    public void cancelledQueryStopsPromptly() throws InterruptedException
+    {
+        // Queries only take a cancellation signal from Jelly Bean on
+        assumeTrue(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN);
+
+        final CancellationSignal signal = new CancellationSignal();
+        final long[] cancelledAt = new long[1];
+        Thread canceller = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                SystemClock.sleep(CANCEL_AFTER_MS);
+                cancelledAt[0] = System.nanoTime();
+                signal.cancel();
+            }
+        });
+
+        long start = System.nanoTime();
+        canceller.start();
+        try
+        {
+            // The provider reads the count of the cursor, so the query runs in here
+            Cursor cursor = mProvider.query(PetEntry.CONTENT_URI, new String[] { PetEntry._ID },
+                    SLOW_SELECTION, null, null, signal);
+            cursor.close();
+            fail("Query ran to the end in " + elapsedMs(start) + " ms without being cancelled");
+        }
+        catch (OperationCanceledException e)
+        {
+            long stoppedAt = System.nanoTime();
+            canceller.join();
+            long stopMs = TimeUnit.NANOSECONDS.toMillis(stoppedAt - cancelledAt[0]);
+            Log.i(LOG_TAG, "Query stopped " + stopMs + " ms after it was cancelled");
+            assertTrue("Query stopped " + stopMs + " ms after it was cancelled",
+                    stopMs <= CANCEL_BUDGET_MS);
+        }
+        finally
+        {
+            canceller.join();
+        }
+
+        // The cancelled query leaves the database free for the next one
+        assertEquals(ROWS, PetProviderTestUtils.countPets(mProvider));
+    }
+
+    private static long elapsedMs(long start)
+    {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs readers against the {@link PetProvider} while a writer holds a long transaction, and
+ * checks that the readers keep reading the last committed pets instead of waiting for it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetProviderConcurrencyTest
+{
+    // Pets the writer inserts in its single transaction
+    private static final int WRITER_ROWS = 50000;
+
+    // Longest a read may take while the writer is running
+    private static final long READ_BUDGET_MS = 200;
+
+    private Context mContext;
+    private PetProvider mProvider;
+
+    @Before
+    public void setUp()
+    {
+        mContext = PetProviderTestUtils.newContext();
+        mProvider = PetProviderTestUtils.newProvider(mContext);
+    }
+
+    @Test
+    public void databaseUsesWriteAheadLogging()
+    {
+        PetDbHelper dbHelper = new PetDbHelper(mContext);
+        try
+        {
+            assertEquals("wal", DatabaseUtils.stringForQuery(dbHelper.getWritableDatabase(),
+                    "PRAGMA journal_mode", null).toLowerCase(Locale.US));
+        }
+        finally
+        {
+            dbHelper.close();
+        }
+    }
+
+    @Test
+    public void readersAreNotBlockedByWriter() throws Exception
+    {
+        // Open the database before the writer starts, so the reads do not wait for that
+        PetProviderTestUtils.countPets(mProvider);
+
+        final CountDownLatch writerStarted = new CountDownLatch(1);
+        final AtomicReference<Throwable> writerError = new AtomicReference<Throwable>();
+        Thread writer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                writerStarted.countDown();
+                try
+                {
+                    mProvider.bulkInsert(PetEntry.CONTENT_URI,
+                            PetProviderTestUtils.newPets(WRITER_ROWS));
+                }
+                catch (Throwable e)
+                {
+                    writerError.set(e);
+                }
+            }
+        });
+
+        long writerStart = SystemClock.elapsedRealtime();
+        writer.start();
+        assertTrue(writerStarted.await(5, TimeUnit.SECONDS));
+
+        int reads = 0;
+        long slowestReadMs = 0;
+        while (writer.isAlive())
+        {
+            long start = SystemClock.elapsedRealtime();
+            Cursor cursor = mProvider.query(PetEntry.CONTENT_URI, new String[] { PetEntry._ID },
+                    null, null, null);
+            cursor.close();
+            long readMs = SystemClock.elapsedRealtime() - start;
+
+            // The last read can end after the writer did, only count the ones it overlapped
+            if (writer.isAlive())
+            {
+                reads++;
+                slowestReadMs = Math.max(slowestReadMs, readMs);
+            }
+        }
+        long writerMs = SystemClock.elapsedRealtime() - writerStart;
+
+        assertNull(writerError.get());
+        assertEquals(WRITER_ROWS, PetProviderTestUtils.countPets(mProvider));
+
+        // A writer quicker than a few reads cannot show whether the reads waited for it
+        assumeTrue(writerMs > 4 * READ_BUDGET_MS);
+        assertTrue("No reads while the writer was running", reads > 0);
+        assertTrue("Slowest read took " + slowestReadMs + " ms while the writer took " +
+                writerMs + " ms", slowestReadMs <= READ_BUDGET_MS);
+    }
+}
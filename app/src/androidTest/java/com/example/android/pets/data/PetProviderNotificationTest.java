@@ -0,0 +1,167 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Counts the change notifications observers of the pets get for every kind of write, to check
+ * that only the pets that actually changed are notified.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetProviderNotificationTest
+{
+    // Long enough for the notifications of a write to be dispatched and delivered
+    private static final long SETTLE_MS = PetChangeNotifier.DEFAULT_WINDOW_MS * 5;
+
+    private ContentResolver mResolver;
+    private PetProvider mProvider;
+
+    // Observes all of the pets
+    private final CountingContentObserver mListObserver = new CountingContentObserver();
+
+    // Observe the first and the second pet only
+    private final CountingContentObserver mFirstPetObserver = new CountingContentObserver();
+    private final CountingContentObserver mSecondPetObserver = new CountingContentObserver();
+
+    private Uri mFirstPetUri;
+    private Uri mSecondPetUri;
+
+    @Before
+    public void setUp()
+    {
+        Context context = PetProviderTestUtils.newContext();
+        mResolver = context.getContentResolver();
+        mProvider = PetProviderTestUtils.newProvider(context);
+
+        mFirstPetUri = mProvider.insert(PetEntry.CONTENT_URI,
+                PetProviderTestUtils.newPet("Rex", "Terrier", PetEntry.GENDER_MALE, 7));
+        mSecondPetUri = mProvider.insert(PetEntry.CONTENT_URI,
+                PetProviderTestUtils.newPet("Bella", "Beagle", PetEntry.GENDER_FEMALE, 9));
+        SystemClock.sleep(SETTLE_MS);
+
+        mResolver.registerContentObserver(PetEntry.CONTENT_URI, true, mListObserver);
+        mResolver.registerContentObserver(mFirstPetUri, false, mFirstPetObserver);
+        mResolver.registerContentObserver(mSecondPetUri, false, mSecondPetObserver);
+    }
+
+    @After
+    public void tearDown()
+    {
+        mResolver.unregisterContentObserver(mListObserver);
+        mResolver.unregisterContentObserver(mFirstPetObserver);
+        mResolver.unregisterContentObserver(mSecondPetObserver);
+    }
+
+    @Test
+    public void writesThatChangeNothingDoNotNotify()
+    {
+        long missingId = ContentUris.parseId(mSecondPetUri) + 1000;
+        assertEquals(0, mProvider.update(ContentUris.withAppendedId(PetEntry.CONTENT_URI, missingId),
+                renamed("Max"), null, null));
+        assertEquals(0, mProvider.update(PetEntry.CONTENT_URI, renamed("Max"),
+                PetEntry.COLUMN_PET_NAME + "=?", new String[] { "Nobody" }));
+        assertEquals(0, mProvider.delete(ContentUris.withAppendedId(PetEntry.CONTENT_URI, missingId),
+                null, null));
+        SystemClock.sleep(SETTLE_MS);
+
+        assertEquals(0, mListObserver.getChangeCount());
+    }
+
+    @Test
+    public void updateOfPetOnlyNotifiesThatPet()
+    {
+        assertEquals(1, mProvider.update(mFirstPetUri, renamed("Max"), null, null));
+        SystemClock.sleep(SETTLE_MS);
+
+        assertEquals(1, mListObserver.getChangeCount());
+        assertEquals(1, mFirstPetObserver.getChangeCount());
+        assertEquals(0, mSecondPetObserver.getChangeCount());
+    }
+
+    @Test
+    public void deleteOfPetOnlyNotifiesThatPet()
+    {
+        assertEquals(1, mProvider.delete(mFirstPetUri, null, null));
+        SystemClock.sleep(SETTLE_MS);
+
+        assertEquals(1, mListObserver.getChangeCount());
+        assertEquals(1, mFirstPetObserver.getChangeCount());
+        assertEquals(0, mSecondPetObserver.getChangeCount());
+    }
+
+    @Test
+    public void insertOnlyNotifiesNewPet()
+    {
+        mProvider.insert(PetEntry.CONTENT_URI,
+                PetProviderTestUtils.newPet("Luna", null, PetEntry.GENDER_UNKNOWN, 3));
+        SystemClock.sleep(SETTLE_MS);
+
+        assertEquals(1, mListObserver.getChangeCount());
+        assertEquals(0, mFirstPetObserver.getChangeCount());
+        assertEquals(0, mSecondPetObserver.getChangeCount());
+    }
+
+    @Test
+    public void batchNotifiesOnceAfterCommit() throws Exception
+    {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (String name : new String[] { "Max", "Milo", "Leo" })
+        {
+            operations.add(ContentProviderOperation.newUpdate(mFirstPetUri)
+                    .withValues(renamed(name))
+                    .build());
+        }
+        mProvider.applyBatch(operations);
+        SystemClock.sleep(SETTLE_MS);
+
+        assertEquals(1, mListObserver.getChangeCount());
+        assertEquals(1, mFirstPetObserver.getChangeCount());
+        assertEquals(0, mSecondPetObserver.getChangeCount());
+    }
+
+    @Test
+    public void searchResultsAreNotifiedOfSinglePetChanges()
+    {
+        CountingContentObserver searchObserver = new CountingContentObserver();
+        Cursor cursor = mProvider.query(PetEntry.buildSearchUri("rex"),
+                new String[] { PetEntry._ID }, null, null, null);
+        try
+        {
+            cursor.registerContentObserver(searchObserver);
+
+            assertEquals(1, mProvider.update(mFirstPetUri, renamed("Max"), null, null));
+            SystemClock.sleep(SETTLE_MS);
+
+            assertEquals(1, searchObserver.getChangeCount());
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues renamed(String name)
+    {
+        ContentValues values = new ContentValues(1);
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        return values;
+    }
+}
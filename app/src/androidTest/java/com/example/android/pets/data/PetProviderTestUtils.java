@@ -0,0 +1,184 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.test.RenamingDelegatingContext;
+import android.test.mock.MockContentResolver;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Sets up a {@link PetProvider} on a database of its own for the tests, so they never touch
+ * the pets of the app.
+ */
+final class PetProviderTestUtils
+{
+    // Prefix of the files of the test database
+    private static final String FILE_PREFIX = "test_";
+
+    private PetProviderTestUtils() {}
+
+    /**
+     * Returns a context that keeps its databases apart from the ones of the app, with the
+     * test database deleted.
+     */
+    static Context newContext()
+    {
+        Context context = new RenamingDelegatingContext(
+                InstrumentationRegistry.getTargetContext(), FILE_PREFIX);
+        context.deleteDatabase(PetDbHelper.DATABASE_NAME);
+        return context;
+    }
+
+    /**
+     * Returns a new provider on the test database of the context. Its change notifications go
+     * through the content resolver of the app, like the ones of the real provider.
+     */
+    static PetProvider newProvider(Context context)
+    {
+        ProviderInfo info = new ProviderInfo();
+        info.authority = PetContract.CONTENT_AUTHORITY;
+
+        PetProvider provider = new PetProvider();
+        provider.attachInfo(context, info);
+        return provider;
+    }
+
+    /**
+     * Returns a content resolver that routes the pet URIs to the given provider, for the
+     * classes that write through a resolver.
+     */
+    static ContentResolver newResolver(PetProvider provider)
+    {
+        MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(PetContract.CONTENT_AUTHORITY, provider);
+        return resolver;
+    }
+
+    /**
+     * Returns the values of the given number of valid pets.
+     */
+    static ContentValues[] newPets(int count)
+    {
+        ContentValues[] pets = new ContentValues[count];
+        for (int i = 0; i < count; i++)
+        {
+            pets[i] = newPet("Pet " + i, i % 3 == 0 ? null : "Breed " + (i % 7),
+                    i % 3, i % 40);
+        }
+        return pets;
+    }
+
+    static ContentValues newPet(String name, String breed, int gender, int weight)
+    {
+        ContentValues values = new ContentValues(4);
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_BREED, breed);
+        values.put(PetEntry.COLUMN_PET_GENDER, gender);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+        return values;
+    }
+
+    /**
+     * Returns the number of pets the provider holds.
+     */
+    static int countPets(PetProvider provider)
+    {
+        Cursor cursor = provider.query(PetEntry.CONTENT_URI, new String[] { PetEntry._ID },
+                null, null, null);
+        try
+        {
+            return cursor.getCount();
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Runs the work and returns the number of objects it allocated on the calling thread.
+     */
+    @SuppressWarnings("deprecation")
+    static int countAllocations(Runnable work)
+    {
+        Debug.startAllocCounting();
+        try
+        {
+            Debug.resetThreadAllocCount();
+            work.run();
+            return Debug.getThreadAllocCount();
+        }
+        finally
+        {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    /**
+     * Samples the heap the app uses from a thread of its own, from when it is created until
+     * it is stopped, and keeps the most it saw over what was in use at the start.
+     */
+    static final class HeapSampler implements Runnable
+    {
+        // Time between two samples of the heap
+        private static final long INTERVAL_MS = 10;
+
+        private final Runtime mRuntime = Runtime.getRuntime();
+        private final Thread mThread = new Thread(this, HeapSampler.class.getSimpleName());
+        private final long mStartBytes;
+        private volatile long mPeakBytes;
+        private volatile boolean mStopped;
+
+        HeapSampler()
+        {
+            // Start from the heap that is really in use, not the garbage of the setup
+            mRuntime.gc();
+            mStartBytes = usedBytes();
+            mPeakBytes = mStartBytes;
+            mThread.start();
+        }
+
+        @Override
+        public void run()
+        {
+            while (!mStopped)
+            {
+                sample();
+                SystemClock.sleep(INTERVAL_MS);
+            }
+        }
+
+        /**
+         * Stops sampling and returns the most heap that was in use on top of the heap in use
+         * at the start, in bytes.
+         */
+        long stop() throws InterruptedException
+        {
+            mStopped = true;
+            mThread.join();
+            sample();
+            return mPeakBytes - mStartBytes;
+        }
+
+        private void sample()
+        {
+            long used = usedBytes();
+            if (used > mPeakBytes)
+            {
+                mPeakBytes = used;
+            }
+        }
+
+        private long usedBytes()
+        {
+            return mRuntime.totalMemory() - mRuntime.freeMemory();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs EXPLAIN QUERY PLAN on the query shapes the provider and the catalog use. Shapes with a
+ * key to look up must seek to it in the expected index, and sorted shapes must read the rows
+ * in index order instead of sorting them.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetQueryPlanTest
+{
+    // Older SQLite versions name the table TABLE pets in the plan, newer ones just pets
+    private static final String PETS = "(TABLE )?" + PetEntry.TABLE_NAME;
+
+    // Any step that walks the pets table or one of its indexes from the start
+    private static final Pattern SCAN = Pattern.compile("^SCAN " + PETS + "( |$)");
+
+    // A step that sorts the rows after reading them
+    private static final Pattern SORT = Pattern.compile("USE TEMP B-TREE FOR ORDER BY");
+
+    private static final String PRIMARY_KEY = "INTEGER PRIMARY KEY";
+    private static final String NAME_INDEX = "INDEX pets_name_idx";
+
+    private PetDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp()
+    {
+        mDbHelper = new PetDbHelper(PetProviderTestUtils.newContext());
+        mDb = mDbHelper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown()
+    {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void petByIdSeeksPrimaryKey()
+    {
+        assertSeeks(PRIMARY_KEY, PetEntry._ID + "=?", null, null, "1");
+    }
+
+    @Test
+    public void petByNameSeeksNameIndex()
+    {
+        assertSeeks(NAME_INDEX, PetEntry.COLUMN_PET_NAME + "=? COLLATE NOCASE", null, null, "Rex");
+    }
+
+    @Test
+    public void petsByBreedSeekBreedIndex()
+    {
+        assertSeeks("INDEX pets_breed_idx", PetEntry.COLUMN_PET_BREED + "=?", null, null,
+                "Terrier");
+    }
+
+    @Test
+    public void petsByGenderAndWeightSeekGenderWeightIndex()
+    {
+        assertSeeks("INDEX pets_gender_weight_idx",
+                PetEntry.COLUMN_PET_GENDER + "=? AND " + PetEntry.COLUMN_PET_WEIGHT + ">?",
+                null, null, "1", "10");
+    }
+
+    @Test
+    public void keysetPageByIdSeeksPrimaryKey()
+    {
+        PetProvider.KeysetSelection keys = PetProvider.buildKeysetSelection(null, "100");
+        assertSeeks(PRIMARY_KEY, keys.selection, keys.sortOrder, "50", keys.selectionArgs);
+    }
+
+    @Test
+    public void keysetPageByNameSeeksNameIndex()
+    {
+        PetProvider.KeysetSelection keys = PetProvider.buildKeysetSelection("Rex", "100");
+        assertSeeks(NAME_INDEX, keys.selection, keys.sortOrder, "50", keys.selectionArgs);
+    }
+
+    /**
+     * An offset page has nothing to seek to, it walks the name index from the start and only
+     * stops after the page, but it must not read and sort the whole table.
+     */
+    @Test
+    public void pageByNameReadsNameIndexInOrder()
+    {
+        List<String> plan = explain(null, PetEntry.SORT_ORDER_NAME, "0,50");
+        assertStep(plan, Pattern.compile("^(SCAN|SEARCH) " + PETS + " USING (COVERING )?" +
+                NAME_INDEX + "( |$)"));
+        assertNoStep(plan, SORT);
+    }
+
+    /**
+     * Fails unless the plan of the query on the pets table seeks in the given index, and
+     * neither scans the table or an index nor sorts the rows.
+     */
+    private void assertSeeks(String index, String selection, String sortOrder, String limit,
+                             String... selectionArgs)
+    {
+        List<String> plan = explain(selection, sortOrder, limit, selectionArgs);
+        assertStep(plan, Pattern.compile("^SEARCH " + PETS + " USING (COVERING )?" + index +
+                "( |$)"));
+        assertNoStep(plan, SCAN);
+        assertNoStep(plan, SORT);
+    }
+
+    private static void assertStep(List<String> plan, Pattern step)
+    {
+        for (String planStep : plan)
+        {
+            if (step.matcher(planStep).find())
+            {
+                return;
+            }
+        }
+        fail("No step " + step + " in the plan " + plan);
+    }
+
+    private static void assertNoStep(List<String> plan, Pattern step)
+    {
+        for (String planStep : plan)
+        {
+            assertFalse("Step " + step + " in the plan " + plan, step.matcher(planStep).find());
+        }
+    }
+
+    /**
+     * Returns the steps of the plan of the query on the pets table.
+     */
+    private List<String> explain(String selection, String sortOrder, String limit,
+                                 String... selectionArgs)
+    {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, PetEntry.TABLE_NAME, null,
+                selection, null, null, sortOrder, limit);
+
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try
+        {
+            List<String> plan = new ArrayList<String>(cursor.getCount());
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext())
+            {
+                plan.add(cursor.getString(detail));
+            }
+            return plan;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+}
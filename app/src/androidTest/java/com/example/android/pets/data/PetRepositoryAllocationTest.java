@@ -0,0 +1,155 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Counts the objects allocated to read and to insert 10k pets through the
+ * {@link PetRepository}, against doing the same through a {@link ContentValues} per pet.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetRepositoryAllocationTest
+{
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetRepositoryAllocationTest.class.getSimpleName();
+
+    private static final int ROWS = 10000;
+
+    private PetProvider mProvider;
+    private ContentResolver mResolver;
+    private PetRepository mRepository;
+
+    @Before
+    public void setUp()
+    {
+        mProvider = PetProviderTestUtils.newProvider(PetProviderTestUtils.newContext());
+        mResolver = PetProviderTestUtils.newResolver(mProvider);
+        mRepository = new PetRepository(mResolver);
+    }
+
+    @Test
+    public void readingPetsAllocatesLessThanContentValues()
+    {
+        mProvider.bulkInsert(PetEntry.CONTENT_URI, PetProviderTestUtils.newPets(ROWS));
+
+        final Cursor cursor = mProvider.query(PetEntry.CONTENT_URI, PetRepository.PROJECTION,
+                null, null, PetEntry.SORT_ORDER_ID);
+        try
+        {
+            // Fill the cursor window up front, so only the mapping of the rows is counted
+            assertEquals(ROWS, cursor.getCount());
+
+            int repositoryAllocations = PetProviderTestUtils.countAllocations(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    PetRepository.readPets(cursor);
+                }
+            });
+
+            int valuesAllocations = PetProviderTestUtils.countAllocations(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    List<Pet> pets = new ArrayList<Pet>(cursor.getCount());
+                    cursor.moveToPosition(-1);
+                    while (cursor.moveToNext())
+                    {
+                        ContentValues values = new ContentValues();
+                        DatabaseUtils.cursorRowToContentValues(cursor, values);
+                        pets.add(new Pet(values.getAsLong(PetEntry._ID),
+                                values.getAsString(PetEntry.COLUMN_PET_NAME),
+                                values.getAsString(PetEntry.COLUMN_PET_BREED),
+                                values.getAsInteger(PetEntry.COLUMN_PET_GENDER),
+                                values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT)));
+                    }
+                }
+            });
+
+            Log.i(LOG_TAG, "Reading " + ROWS + " pets allocated " + repositoryAllocations +
+                    " objects through the repository, " + valuesAllocations +
+                    " through ContentValues");
+            assertTrue(repositoryAllocations + " >= " + valuesAllocations,
+                    repositoryAllocations < valuesAllocations);
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void insertingPetsAllocatesLessThanContentValues()
+    {
+        final List<Pet> pets = new ArrayList<Pet>(ROWS);
+        for (ContentValues values : PetProviderTestUtils.newPets(ROWS))
+        {
+            pets.add(new Pet(values.getAsString(PetEntry.COLUMN_PET_NAME),
+                    values.getAsString(PetEntry.COLUMN_PET_BREED),
+                    values.getAsInteger(PetEntry.COLUMN_PET_GENDER),
+                    values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT)));
+        }
+
+        // Both paths are counted after a first run, once the buffers of the repository and
+        // the statements of the provider are set up
+        Runnable repositoryInsert = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                assertEquals(ROWS, mRepository.insert(pets));
+            }
+        };
+        Runnable valuesInsert = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                ContentValues[] values = new ContentValues[pets.size()];
+                for (int i = 0; i < values.length; i++)
+                {
+                    values[i] = PetRepository.toContentValues(pets.get(i), new ContentValues());
+                }
+                assertEquals(ROWS, mResolver.bulkInsert(PetEntry.CONTENT_URI, values));
+            }
+        };
+
+        repositoryInsert.run();
+        deleteAllPets();
+        int repositoryAllocations = PetProviderTestUtils.countAllocations(repositoryInsert);
+        deleteAllPets();
+        valuesInsert.run();
+        deleteAllPets();
+        int valuesAllocations = PetProviderTestUtils.countAllocations(valuesInsert);
+
+        Log.i(LOG_TAG, "Inserting " + ROWS + " pets allocated " + repositoryAllocations +
+                " objects through the repository, " + valuesAllocations +
+                " through ContentValues");
+        assertTrue(repositoryAllocations + " >= " + valuesAllocations,
+                repositoryAllocations < valuesAllocations);
+    }
+
+    private void deleteAllPets()
+    {
+        mProvider.delete(PetEntry.CONTENT_URI, null, null);
+        assertEquals(0, PetProviderTestUtils.countPets(mProvider));
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Times searching 500k pets through the full-text index against the LIKE scan of the name and
+ * breed columns it replaced.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetSearchBenchmarkTest
+{
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetSearchBenchmarkTest.class.getSimpleName();
+
+    private static final int ROWS = 500000;
+
+    // Pets inserted with a single bulk insert while filling the table
+    private static final int INSERT_CHUNK = 10000;
+
+    // Searches of every kind, the median is compared
+    private static final int RUNS = 11;
+
+    // Matches the names "Pet 4242", "Pet 42420" to "Pet 42429" and so on, a few hundred pets
+    private static final String QUERY = "4242";
+
+    private static final String LIKE_SELECTION = PetEntry.COLUMN_PET_NAME + " LIKE ? OR " +
+            PetEntry.COLUMN_PET_BREED + " LIKE ?";
+
+    private static final String[] PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED
+    };
+
+    private static PetProvider sProvider;
+
+    @BeforeClass
+    public static void setUpClass()
+    {
+        sProvider = PetProviderTestUtils.newProvider(PetProviderTestUtils.newContext());
+        for (int start = 0; start < ROWS; start += INSERT_CHUNK)
+        {
+            sProvider.bulkInsert(PetEntry.CONTENT_URI,
+                    PetProviderTestUtils.newPets(Math.min(INSERT_CHUNK, ROWS - start)));
+        }
+    }
+
+    @Test
+    public void fullTextSearchIsFasterThanLike()
+    {
+        String pattern = "%" + QUERY + "%";
+        long[] searchRuns = new long[RUNS];
+        long[] likeRuns = new long[RUNS];
+        int searchRows = 0;
+        int likeRows = 0;
+        for (int i = 0; i < RUNS; i++)
+        {
+            long start = System.nanoTime();
+            searchRows = countRows(PetEntry.buildSearchUri(QUERY), null, null, null);
+            searchRuns[i] = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            likeRows = countRows(PetEntry.CONTENT_URI, LIKE_SELECTION,
+                    new String[] { pattern, pattern }, PetEntry.SORT_ORDER_NAME);
+            likeRuns[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(searchRuns);
+        Arrays.sort(likeRuns);
+        long searchUs = searchRuns[RUNS / 2] / 1000;
+        long likeUs = likeRuns[RUNS / 2] / 1000;
+
+        String result = "Searching " + ROWS + " pets for " + QUERY + ": full-text index found " +
+                searchRows + " pets in " + searchUs + " us, LIKE found " + likeRows +
+                " pets in " + likeUs + " us";
+        Log.i(LOG_TAG, result);
+        assertTrue(result, searchRows > 0);
+        assertTrue(result, searchUs < likeUs);
+    }
+
+    /**
+     * Queries the pets and returns the number of rows, which runs the whole query.
+     */
+    private static int countRows(Uri uri, String selection, String[] selectionArgs,
+                                 String sortOrder)
+    {
+        Cursor cursor = sProvider.query(uri, PROJECTION, selection, selectionArgs, sortOrder);
+        try
+        {
+            return cursor.getCount();
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+}
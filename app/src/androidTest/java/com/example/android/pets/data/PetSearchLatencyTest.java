@@ -0,0 +1,99 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.pets.PetPagedAdapter;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the first page of search results comes within the 100 ms budget the catalog
+ * has from a pause in typing to its results, for every query typed on the way to a search.
+ * The catalog loads that page when typing pauses, so it is the whole latency once the
+ * debounce has run out.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetSearchLatencyTest
+{
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetSearchLatencyTest.class.getSimpleName();
+
+    // Budget of the catalog, from the pause in typing to the first page of results
+    private static final long LATENCY_BUDGET_MS = 100;
+
+    private static final int ROWS = 10000;
+
+    // Searched for one key stroke at a time, the short queries match most of the pets
+    private static final String TYPED_QUERY = "pet 42";
+
+    // Searches of every query, the median is compared
+    private static final int RUNS = 11;
+
+    // Columns the catalog loads
+    private static final String[] PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED
+    };
+
+    private PetProvider mProvider;
+
+    @Before
+    public void setUp()
+    {
+        mProvider = PetProviderTestUtils.newProvider(PetProviderTestUtils.newContext());
+        mProvider.bulkInsert(PetEntry.CONTENT_URI, PetProviderTestUtils.newPets(ROWS));
+    }
+
+    @Test
+    public void firstPageOfEveryKeyStrokeIsWithinBudget()
+    {
+        for (int length = 1; length <= TYPED_QUERY.length(); length++)
+        {
+            // The catalog searches for the typed text without the spaces around it
+            String query = TYPED_QUERY.substring(0, length).trim();
+            long latencyMs = TimeUnit.NANOSECONDS.toMillis(medianFirstPageNanos(query));
+            Log.i(LOG_TAG, "First page of \"" + query + "\" took " + latencyMs + " ms");
+            assertTrue("First page of \"" + query + "\" took " + latencyMs +
+                    " ms, over the budget of " + LATENCY_BUDGET_MS + " ms",
+                    latencyMs <= LATENCY_BUDGET_MS);
+        }
+    }
+
+    /**
+     * Returns the median time it takes to query the first page of the search and read all of
+     * its rows, like the loader of the catalog does.
+     */
+    private long medianFirstPageNanos(String query)
+    {
+        long[] runs = new long[RUNS];
+        for (int i = 0; i < RUNS; i++)
+        {
+            long start = System.nanoTime();
+            Cursor cursor = mProvider.query(
+                    PetEntry.buildSearchUri(query, 0, PetPagedAdapter.PAGE_SIZE),
+                    PROJECTION, null, null, null);
+            try
+            {
+                cursor.getCount();
+            }
+            finally
+            {
+                cursor.close();
+            }
+            runs[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(runs);
+        return runs[RUNS / 2];
+    }
+}
@@ -0,0 +1,278 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads snapshots of the pets through the {@link PetProvider} and restores them, and compares
+ * their size and restore time against the CSV export.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetSnapshotTest
+{
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetSnapshotTest.class.getSimpleName();
+
+    // Enough pets for the snapshot not to fit in the pipe, so it is still being written while
+    // the test reads it
+    private static final int POINT_IN_TIME_ROWS = 20000;
+
+    // Pets of the comparison against CSV
+    private static final int BENCHMARK_ROWS = 100000;
+
+    // Pets inserted with a single bulk insert while filling the table
+    private static final int INSERT_CHUNK = 10000;
+
+    // Longer than the 64 KB payload the snapshot writes its blocks with
+    private static final int LARGE_NAME_LENGTH = 70 * 1024;
+
+    // How long a write gets to sneak into the snapshot while it is being read
+    private static final long WRITE_WAIT_MS = 500;
+
+    private PetProvider mProvider;
+    private File mSnapshotFile;
+
+    @Before
+    public void setUp()
+    {
+        mProvider = PetProviderTestUtils.newProvider(PetProviderTestUtils.newContext());
+        mSnapshotFile = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "test_pets.snapshot");
+    }
+
+    @After
+    public void tearDown()
+    {
+        mSnapshotFile.delete();
+    }
+
+    @Test
+    public void restoresTheSnapshotPets()
+    {
+        mProvider.bulkInsert(PetEntry.CONTENT_URI, new ContentValues[] {
+                PetProviderTestUtils.newPet("Rex", "Terrier", PetEntry.GENDER_MALE, 12),
+                PetProviderTestUtils.newPet("Tom", null, PetEntry.GENDER_UNKNOWN, 0),
+                PetProviderTestUtils.newPet("Bella", "Collie", PetEntry.GENDER_FEMALE, 20)
+        });
+        assertRoundTrip();
+    }
+
+    /**
+     * A first pet larger than a block gets a block of its own, without an empty block before
+     * it that would end the snapshot before any pet.
+     */
+    @Test
+    public void restoresPetLargerThanBlock()
+    {
+        char[] name = new char[LARGE_NAME_LENGTH];
+        Arrays.fill(name, 'x');
+
+        mProvider.bulkInsert(PetEntry.CONTENT_URI, new ContentValues[] {
+                PetProviderTestUtils.newPet(new String(name), null, PetEntry.GENDER_FEMALE, 3),
+                PetProviderTestUtils.newPet("Rex", "Terrier", PetEntry.GENDER_MALE, 12),
+                PetProviderTestUtils.newPet("Tom", null, PetEntry.GENDER_UNKNOWN, 0)
+        });
+        assertRoundTrip();
+    }
+
+    /**
+     * A pet inserted while the snapshot is being read is not in the snapshot, the whole
+     * snapshot holds the pets as they were when it started.
+     */
+    @Test
+    public void snapshotIsPointInTime() throws Exception
+    {
+        insertPets(POINT_IN_TIME_ROWS);
+
+        InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(
+                mProvider.openFile(PetEntry.SNAPSHOT_URI, "r"));
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        Thread writer;
+        try
+        {
+            // Read the start of the snapshot, the rest is waiting in the pipe
+            byte[] buffer = new byte[8192];
+            int read = in.read(buffer);
+            assertTrue(read > 0);
+            snapshot.write(buffer, 0, read);
+
+            writer = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    mProvider.insert(PetEntry.CONTENT_URI, PetProviderTestUtils.newPet("Late",
+                            null, PetEntry.GENDER_UNKNOWN, 1));
+                }
+            });
+            writer.start();
+            writer.join(WRITE_WAIT_MS);
+
+            while ((read = in.read(buffer)) != -1)
+            {
+                snapshot.write(buffer, 0, read);
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+        writer.join();
+        assertEquals(POINT_IN_TIME_ROWS + 1, PetProviderTestUtils.countPets(mProvider));
+
+        assertEquals(POINT_IN_TIME_ROWS, restore(snapshot.toByteArray()));
+        assertEquals(POINT_IN_TIME_ROWS, PetProviderTestUtils.countPets(mProvider));
+    }
+
+    @Test
+    public void snapshotIsSmallerAndRestoresFasterThanCsv() throws IOException
+    {
+        insertPets(BENCHMARK_ROWS);
+        byte[] snapshot = readAll(mProvider.openFile(PetEntry.SNAPSHOT_URI, "r"));
+        byte[] csv = readAll(mProvider.openFile(
+                PetEntry.buildExportUri(PetContract.FORMAT_CSV), "r"));
+
+        long start = System.nanoTime();
+        assertEquals(BENCHMARK_ROWS, restore(snapshot));
+        long snapshotMs = (System.nanoTime() - start) / 1000000;
+
+        mProvider.delete(PetEntry.CONTENT_URI, null, null);
+        start = System.nanoTime();
+        PetImporter.Result result = new PetImporter(
+                PetProviderTestUtils.newResolver(mProvider), null)
+                .importCsv(new ByteArrayInputStream(csv));
+        long csvMs = (System.nanoTime() - start) / 1000000;
+        assertEquals(BENCHMARK_ROWS, result.importedRows);
+
+        String comparison = BENCHMARK_ROWS + " pets: snapshot " + snapshot.length +
+                " bytes restored in " + snapshotMs + " ms, CSV " + csv.length +
+                " bytes imported in " + csvMs + " ms";
+        Log.i(LOG_TAG, comparison);
+        assertTrue(comparison, snapshot.length < csv.length);
+        assertTrue(comparison, snapshotMs < csvMs);
+    }
+
+    /**
+     * Reads a snapshot, restores it over the same pets, and checks that all of them are back
+     * as they were, IDs included.
+     */
+    private void assertRoundTrip()
+    {
+        List<Pet> pets = readPets();
+        byte[] snapshot;
+        try
+        {
+            snapshot = readAll(mProvider.openFile(PetEntry.SNAPSHOT_URI, "r"));
+        }
+        catch (IOException e)
+        {
+            throw new AssertionError(e);
+        }
+
+        mProvider.delete(PetEntry.CONTENT_URI, null, null);
+        assertEquals(pets.size(), restore(snapshot));
+
+        List<Pet> restored = readPets();
+        assertEquals(pets.size(), restored.size());
+        for (int i = 0; i < pets.size(); i++)
+        {
+            Pet pet = pets.get(i);
+            Pet restoredPet = restored.get(i);
+            assertEquals(pet.getId(), restoredPet.getId());
+            assertEquals(pet.getName(), restoredPet.getName());
+            assertEquals(pet.getBreed(), restoredPet.getBreed());
+            assertEquals(pet.getGender(), restoredPet.getGender());
+            assertEquals(pet.getWeight(), restoredPet.getWeight());
+        }
+    }
+
+    private List<Pet> readPets()
+    {
+        return new PetRepository(PetProviderTestUtils.newResolver(mProvider))
+                .getPets(PetEntry.CONTENT_URI, null, null, PetEntry.SORT_ORDER_ID);
+    }
+
+    private void insertPets(int count)
+    {
+        for (int start = 0; start < count; start += INSERT_CHUNK)
+        {
+            mProvider.bulkInsert(PetEntry.CONTENT_URI,
+                    PetProviderTestUtils.newPets(Math.min(INSERT_CHUNK, count - start)));
+        }
+    }
+
+    /**
+     * Restores the snapshot through the provider and returns the number of restored pets.
+     */
+    private int restore(byte[] snapshot)
+    {
+        try
+        {
+            FileOutputStream out = new FileOutputStream(mSnapshotFile);
+            try
+            {
+                out.write(snapshot);
+            }
+            finally
+            {
+                out.close();
+            }
+
+            Bundle extras = new Bundle();
+            extras.putParcelable(PetContract.KEY_SNAPSHOT, ParcelFileDescriptor.open(
+                    mSnapshotFile, ParcelFileDescriptor.MODE_READ_ONLY));
+            Bundle result = mProvider.call(PetContract.METHOD_RESTORE_SNAPSHOT, null, extras);
+            return result.getInt(PetContract.KEY_RESTORED_ROWS);
+        }
+        catch (IOException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Reads the pipe to the end and closes it.
+     */
+    private static byte[] readAll(ParcelFileDescriptor pipe) throws IOException
+    {
+        InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pipe);
+        try
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+            {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
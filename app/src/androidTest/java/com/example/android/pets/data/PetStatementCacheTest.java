@@ -0,0 +1,147 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Times inserting, updating and deleting pets one at a time through the
+ * {@link PetStatementCache}, against the same writes through {@link SQLiteDatabase}, which
+ * builds the SQL and the arguments of every write again.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetStatementCacheTest
+{
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetStatementCacheTest.class.getSimpleName();
+
+    private static final int ROWS = 5000;
+
+    // Runs of both kinds of writes, taking turns, the median is compared
+    private static final int RUNS = 5;
+
+    private static final String SELECTION_ID = PetEntry._ID + "=?";
+
+    private PetDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+    private ContentValues[] mPets;
+    private ContentValues mUpdate;
+
+    @Before
+    public void setUp()
+    {
+        mDbHelper = new PetDbHelper(PetProviderTestUtils.newContext());
+        mDb = mDbHelper.getWritableDatabase();
+        mPets = PetProviderTestUtils.newPets(ROWS);
+
+        mUpdate = new ContentValues(1);
+        mUpdate.put(PetEntry.COLUMN_PET_WEIGHT, 7);
+    }
+
+    @After
+    public void tearDown()
+    {
+        mDbHelper.close();
+    }
+
+    @Test
+    public void cachedStatementsAreFasterThanDatabaseWrites()
+    {
+        long[] cachedRuns = new long[RUNS];
+        long[] uncachedRuns = new long[RUNS];
+        for (int i = 0; i < RUNS; i++)
+        {
+            cachedRuns[i] = timeCachedWrites();
+            uncachedRuns[i] = timeDatabaseWrites();
+        }
+        Arrays.sort(cachedRuns);
+        Arrays.sort(uncachedRuns);
+        long cachedMs = cachedRuns[RUNS / 2] / 1000000;
+        long uncachedMs = uncachedRuns[RUNS / 2] / 1000000;
+
+        String result = "Inserting, updating and deleting " + ROWS + " pets took " + cachedMs +
+                " ms with cached statements, " + uncachedMs + " ms through the database";
+        Log.i(LOG_TAG, result);
+        assertTrue(result, cachedMs < uncachedMs);
+    }
+
+    /**
+     * Writes every pet through a new statement cache, the way a writer thread of the provider
+     * does, and returns how long it took.
+     */
+    private long timeCachedWrites()
+    {
+        long start = System.nanoTime();
+        mDb.beginTransaction();
+        try
+        {
+            PetStatementCache statements = new PetStatementCache(mDb);
+            long[] ids = new long[ROWS];
+            for (int i = 0; i < ROWS; i++)
+            {
+                ids[i] = statements.insert(mPets[i]);
+            }
+            for (long id : ids)
+            {
+                assertEquals(1, statements.updateById(id, mUpdate));
+            }
+            for (long id : ids)
+            {
+                assertEquals(1, statements.deleteById(id));
+            }
+            mDb.setTransactionSuccessful();
+        }
+        finally
+        {
+            mDb.endTransaction();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Writes every pet through {@link SQLiteDatabase}, like the provider did before it cached
+     * its statements, and returns how long it took.
+     */
+    private long timeDatabaseWrites()
+    {
+        long start = System.nanoTime();
+        mDb.beginTransaction();
+        try
+        {
+            long[] ids = new long[ROWS];
+            for (int i = 0; i < ROWS; i++)
+            {
+                ids[i] = mDb.insert(PetEntry.TABLE_NAME, null, mPets[i]);
+            }
+            for (long id : ids)
+            {
+                assertEquals(1, mDb.update(PetEntry.TABLE_NAME, mUpdate, SELECTION_ID,
+                        new String[] { String.valueOf(id) }));
+            }
+            for (long id : ids)
+            {
+                assertEquals(1, mDb.delete(PetEntry.TABLE_NAME, SELECTION_ID,
+                        new String[] { String.valueOf(id) }));
+            }
+            mDb.setTransactionSuccessful();
+        }
+        finally
+        {
+            mDb.endTransaction();
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -17,8 +17,9 @@ package com.example.android.pets;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentResolver;
 import android.content.ContentUris;
-import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -26,21 +27,36 @@ import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.StrictMode;
+import android.os.SystemClock;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.CursorAdapter;
-import android.widget.ListView;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetAsyncWriter;
+import com.example.android.pets.data.PetContract;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetImporter;
 import com.example.android.pets.data.PetProvider;
+import com.example.android.pets.data.PetWriteBehindQueue;
+
+import java.io.IOException;
+import java.io.InputStream;
 
 
 /**
@@ -49,21 +65,101 @@ import com.example.android.pets.data.PetProvider;
 public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor>
 {
 
-    private CursorAdapter mPetCursorAdapter;
+    private PetPagedAdapter mPetPagedAdapter;
+    private RecyclerView mPetListView;
+    private LinearLayoutManager mLayoutManager;
+    private View mEmptyView;
+
+    // Request code for picking the file to import
+    private static final int REQUEST_IMPORT = 1;
+
+    // Every page of pets gets its own loader, with the ID PET_LOADER + page number
     private static final int PET_LOADER = 0;
+    private static final String ARG_PAGE = "page";
+
+    // Number of pages kept loaded on either side of the visible pages
+    private static final int PAGE_WINDOW = 2;
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = CatalogActivity.class.getSimpleName();
+
+    // Typing is only searched for once it pauses for this long
+    private static final long SEARCH_DEBOUNCE_MS = 300;
+    // Longest the first page of search results should take to show up after typing pauses
+    private static final long SEARCH_LATENCY_BUDGET_MS = 100;
+    private static final String STATE_SEARCH_QUERY = "search_query";
+
+    // Search the pets are filtered by, empty to show all of the pets
+    private String mSearchQuery = "";
+    // Search that is waiting out the debounce
+    private String mPendingSearchQuery = "";
+    // When the current search started loading, or 0 once its first page has been shown
+    private long mSearchStartTime;
+    private final Handler mHandler = new Handler();
+
+    /**
+     * Applies the search the user typed, once they stopped typing for a moment.
+     */
+    private final Runnable mApplySearch = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            applySearch(mPendingSearchQuery);
+        }
+    };
+
+    private boolean mLoadPagesPosted = false;
+
+    /**
+     * Loads the pages of the visible rows and releases the pages far away from them.
+     * Posted from the scroll and data listeners so loaders are not started in the middle of a layout.
+     */
+    private final Runnable mLoadPages = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            mLoadPagesPosted = false;
+            loadVisiblePages();
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState)
     {
         super.onCreate(savedInstanceState);
+
+        // Debug builds log every disk read and write made on the main thread
+        if (BuildConfig.DEBUG)
+        {
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .penaltyLog()
+                    .build());
+        }
+
         setContentView(R.layout.activity_catalog);
 
-        // Find ListView to populate
-        ListView petListView = (ListView) findViewById(R.id.list);
+        // Keep filtering by the search from before the activity was recreated
+        if (savedInstanceState != null)
+        {
+            mSearchQuery = savedInstanceState.getString(STATE_SEARCH_QUERY, "");
+            mPendingSearchQuery = mSearchQuery;
+        }
+        else
+        {
+            scheduleMaintenance();
+        }
+
+        // Find RecyclerView to populate
+        mPetListView = (RecyclerView) findViewById(R.id.list);
+        mLayoutManager = new LinearLayoutManager(this);
+        mPetListView.setLayoutManager(mLayoutManager);
 
-        // Find and set EmptyView
-        View emptyView = (RelativeLayout) findViewById(R.id.empty_view);
-        petListView.setEmptyView(emptyView);
+        // Find EmptyView
+        mEmptyView = (RelativeLayout) findViewById(R.id.empty_view);
 
 
         // Setup FAB to open EditorActivity
@@ -78,11 +174,11 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
         });
 
-        // Set on item click listener to listed pets
-        petListView.setOnItemClickListener(new AdapterView.OnItemClickListener()
+        // Setup the PetPagedAdapter, with a click listener for the listed pets
+        mPetPagedAdapter = new PetPagedAdapter(this, new PetPagedAdapter.OnPetClickListener()
         {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id)
+            public void onPetClick(long id)
             {
                 // Create URI for clicked on Pet
                 Uri uri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, id);
@@ -97,50 +193,313 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
                 startActivity(openEditPet);
             }
         });
-            // Have it send intent with that pet's URI
 
-        // Init the loader
-        getLoaderManager().initLoader(PET_LOADER, null, this);
+        // Show the empty view while there are no pets, and check for more pages to load
+        // whenever the rows change
+        mPetPagedAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver()
+        {
+            @Override
+            public void onChanged()
+            {
+                onPetsChanged();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount)
+            {
+                onPetsChanged();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount)
+            {
+                onPetsChanged();
+            }
+        });
+
+        // Attach paged adapter to the RecyclerView
+        mPetListView.setAdapter(mPetPagedAdapter);
 
-        // Re-establish the PetCursorAdapter
-        mPetCursorAdapter = new PetCursorAdapter(this, null);
-        // Attach cursor adapter to the ListView
-        petListView.setAdapter(mPetCursorAdapter);
+        // Load more pages as the list is scrolled
+        mPetListView.addOnScrollListener(new RecyclerView.OnScrollListener()
+        {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy)
+            {
+                postLoadPages();
+            }
+        });
+
+        // Init the loader of the first page
+        loadPage(0);
     }
 
     /**
-     * Inserts pet info into the database and updates display info
+     * Updates the empty view after the number of pets changed.
      */
-    private void insertPet()
+    private void onPetsChanged()
     {
-        // Creating pet values for inserting
-        ContentValues values = createEntry("Toto", "Terrier", PetEntry.GENDER_MALE, 7);
+        mEmptyView.setVisibility(mPetPagedAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+        postLoadPages();
+    }
 
-        // Insert a new row for Toto into the provider using the ContentResolver.
-        // Use the {@link PetEntry#CONTENT_URI} to indicate that we want to insert
-        // into the pets database table.
-        // Receive the new content URI that will allow us to access Toto's data in the future.
-        Uri newUri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
+    /**
+     * Loads the pages for the visible rows once the current layout is done.
+     */
+    private void postLoadPages()
+    {
+        if (!mLoadPagesPosted)
+        {
+            mLoadPagesPosted = true;
+            mPetListView.post(mLoadPages);
+        }
+    }
+
+    @Override
+    protected void onPause()
+    {
+        super.onPause();
+
+        // The app may be going away, so write the queued saves now
+        PetWriteBehindQueue.getInstance(this).flush();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState)
+    {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SEARCH_QUERY, mSearchQuery);
+    }
+
+    @Override
+    protected void onDestroy()
+    {
+        mPetListView.removeCallbacks(mLoadPages);
+        mHandler.removeCallbacks(mApplySearch);
+        super.onDestroy();
+    }
+
+    /**
+     * Runs the database maintenance on the writer thread, once the main thread is idle, so it
+     * does not compete with showing the pets. The provider only vacuums the database when
+     * enough of it is free pages.
+     */
+    private void scheduleMaintenance()
+    {
+        final ContentResolver resolver = getContentResolver();
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler()
+        {
+            @Override
+            public boolean queueIdle()
+            {
+                PetAsyncWriter.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            Bundle result = resolver.call(PetEntry.CONTENT_URI,
+                                    PetContract.METHOD_MAINTAIN, null, null);
+                            Log.v(LOG_TAG, "Maintenance reclaimed " +
+                                    result.getLong(PetContract.KEY_RECLAIMED_BYTES) + " bytes");
+                        }
+                        catch (RuntimeException e)
+                        {
+                            Log.e(LOG_TAG, "Database maintenance failed", e);
+                        }
+                    }
+                });
+
+                // Only run once
+                return false;
+            }
+        });
     }
 
     /**
-     * Creates entry for the database
-     * @param name - Name of the pet
-     * @param breed - Breed of the pet
-     * @param gender - Gender (0 - Unknown, 1 - Male, 2 - Female)
-     * @param weight - Weight (in kg) of the pet
-     * @return ContentValue for inserting into the database
+     * Filters the pets by the given search, or shows all of them again for an empty search.
+     * All the page loaders are dropped, which cancels the queries still running for the old
+     * search, and the pages are loaded again from the first one.
      */
-    private ContentValues createEntry(String name, String breed, int gender, int weight)
+    private void applySearch(String query)
     {
-        // Creating pet
-        ContentValues petValues = new ContentValues();
-        petValues.put(PetEntry.COLUMN_PET_NAME, name);
-        petValues.put(PetEntry.COLUMN_PET_BREED, breed);
-        petValues.put(PetEntry.COLUMN_PET_GENDER, gender);
-        petValues.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+        if (query.equals(mSearchQuery))
+        {
+            return;
+        }
+        mSearchQuery = query;
+        mSearchStartTime = SystemClock.elapsedRealtime();
+
+        for (int page = 0; page <= mPetPagedAdapter.getLastPage() + 1; page++)
+        {
+            getLoaderManager().destroyLoader(PET_LOADER + page);
+        }
+        mPetPagedAdapter.clearPages();
+        mPetListView.scrollToPosition(0);
+
+        Bundle args = new Bundle();
+        args.putInt(ARG_PAGE, 0);
+        getLoaderManager().restartLoader(PET_LOADER, args, this);
+    }
 
-        return petValues;
+    /**
+     * Starts the loader for the given page of pets, if it is not already running.
+     */
+    private void loadPage(int page)
+    {
+        Bundle args = new Bundle();
+        args.putInt(ARG_PAGE, page);
+        getLoaderManager().initLoader(PET_LOADER + page, args, this);
+    }
+
+    /**
+     * Loads the pages of the visible rows, plus the next page once the list is scrolled
+     * halfway into the last one, and releases the pages outside of the window around them.
+     */
+    private void loadVisiblePages()
+    {
+        int firstVisibleItem = Math.max(mLayoutManager.findFirstVisibleItemPosition(), 0);
+        int lastVisibleItem = Math.max(mLayoutManager.findLastVisibleItemPosition(), 0);
+
+        int firstPage = firstVisibleItem / PetPagedAdapter.PAGE_SIZE;
+        int lastPage = (lastVisibleItem + 1 + PetPagedAdapter.PAGE_SIZE / 2)
+                / PetPagedAdapter.PAGE_SIZE;
+
+        for (int page = firstPage; page <= lastPage; page++)
+        {
+            // Stop at the end of the pets
+            if (page > mPetPagedAdapter.getLastPage() &&
+                    (page > mPetPagedAdapter.getLastPage() + 1 || !mPetPagedAdapter.hasMorePages()))
+            {
+                break;
+            }
+            if (!mPetPagedAdapter.isPageLoaded(page))
+            {
+                loadPage(page);
+            }
+        }
+
+        for (int page : mPetPagedAdapter.getLoadedPages())
+        {
+            if (page < firstPage - PAGE_WINDOW || page > lastPage + PAGE_WINDOW)
+            {
+                getLoaderManager().destroyLoader(PET_LOADER + page);
+            }
+        }
+    }
+
+    /**
+     * Inserts pet info into the database and updates display info
+     */
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data)
+    {
+        if (requestCode == REQUEST_IMPORT && resultCode == RESULT_OK && data != null &&
+                data.getData() != null)
+        {
+            importPets(data.getData());
+            return;
+        }
+        super.onActivityResult(requestCode, resultCode, data);
+    }
+
+    /**
+     * Imports the pets of the CSV or JSON file on the writer thread, after the writes before it.
+     */
+    private void importPets(final Uri fileUri)
+    {
+        final Context context = getApplicationContext();
+        final ContentResolver resolver = context.getContentResolver();
+
+        // Write the queued saves first, so they cannot land on top of the imported pets
+        PetWriteBehindQueue.getInstance(this).flush();
+        PetAsyncWriter.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                PetImporter importer = new PetImporter(resolver, new PetImporter.Listener()
+                {
+                    @Override
+                    public void onRowRejected(long row, String reason)
+                    {
+                        Log.w(LOG_TAG, "Rejected row " + row + ": " + reason);
+                    }
+
+                    @Override
+                    public void onProgress(long importedRows, long rejectedRows, long elapsedMs)
+                    {
+                    }
+                });
+
+                String message;
+                InputStream in = null;
+                try
+                {
+                    in = resolver.openInputStream(fileUri);
+                    if (in == null)
+                    {
+                        throw new IOException("Unable to open " + fileUri);
+                    }
+
+                    // Files that are not JSON are read as CSV
+                    String type = resolver.getType(fileUri);
+                    String path = fileUri.getPath();
+                    boolean json = (type != null && type.contains("json")) ||
+                            (path != null && path.endsWith(".json"));
+
+                    PetImporter.Result result = json ? importer.importJson(in) : importer.importCsv(in);
+                    Log.v(LOG_TAG, "Imported " + result.importedRows + " pets in " +
+                            result.elapsedMs + " ms, " + (long) result.getRowsPerSecond() + " rows/s");
+                    message = context.getString(R.string.catalog_import_pets_successful,
+                            result.importedRows, result.rejectedRows);
+                }
+                catch (Exception e)
+                {
+                    Log.e(LOG_TAG, "Unable to import " + fileUri, e);
+                    message = context.getString(R.string.catalog_import_pets_failed);
+                }
+                finally
+                {
+                    closeQuietly(in);
+                }
+
+                final String toast = message;
+                new Handler(Looper.getMainLooper()).post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        Toast.makeText(context, toast, Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+        });
+    }
+
+    private static void closeQuietly(InputStream in)
+    {
+        if (in != null)
+        {
+            try
+            {
+                in.close();
+            }
+            catch (IOException ignored)
+            {
+            }
+        }
+    }
+
+    private void insertPet()
+    {
+        // Insert a new row for Toto into the provider.
+        // Receive the new content URI that will allow us to access Toto's data in the future.
+        // The queued saves are written first, so the writes stay in the order they were made.
+        PetWriteBehindQueue.getInstance(this).flush();
+        new PetAsyncWriter(getContentResolver())
+                .insert(new Pet("Toto", "Terrier", PetEntry.GENDER_MALE, 7), null);
     }
 
     private void showDeleteAllConfirmationDialog()
@@ -177,21 +536,31 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 
     private void deleteAllPets()
     {
-
-        int numberOfPetsDeleted = getContentResolver().delete(PetEntry.CONTENT_URI, null, null);
-
-        if(numberOfPetsDeleted == 0)
+        // Write the queued saves first, so none of them is applied after the pets are deleted
+        PetWriteBehindQueue.getInstance(this).flush();
+        new PetAsyncWriter(getContentResolver()).delete(PetEntry.CONTENT_URI,
+                new PetAsyncWriter.Callback()
         {
-            // Unable to delete pets
-            Toast.makeText(this, getString(R.string.catalog_delete_pets_failed),
-                    Toast.LENGTH_SHORT).show();
-        }
-        else
-        {
-            // Pets were deleted
-            Toast.makeText(this, getString(R.string.catalog_delete_pets_successful),
-                    Toast.LENGTH_SHORT).show();
-        }
+            @Override
+            public void onWriteComplete(int numberOfPetsDeleted)
+            {
+                if(numberOfPetsDeleted == 0)
+                {
+                    // Unable to delete pets
+                    Toast.makeText(CatalogActivity.this, getString(R.string.catalog_delete_pets_failed),
+                            Toast.LENGTH_SHORT).show();
+                }
+                else
+                {
+                    // Pets were deleted
+                    Toast.makeText(CatalogActivity.this, getString(R.string.catalog_delete_pets_successful),
+                            Toast.LENGTH_SHORT).show();
+
+                    // The deleted pets left the database file full of free pages
+                    scheduleMaintenance();
+                }
+            }
+        });
     }
 
     @Override
@@ -200,6 +569,37 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        // Search as the user types, once the typing pauses
+        MenuItem searchItem = menu.findItem(R.id.action_search);
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        searchView.setQueryHint(getString(R.string.search_hint));
+        if (!TextUtils.isEmpty(mSearchQuery))
+        {
+            MenuItemCompat.expandActionView(searchItem);
+            searchView.setQuery(mSearchQuery, false);
+        }
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener()
+        {
+            @Override
+            public boolean onQueryTextSubmit(String query)
+            {
+                // No need to wait for more typing
+                mHandler.removeCallbacks(mApplySearch);
+                mPendingSearchQuery = query.trim();
+                applySearch(mPendingSearchQuery);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText)
+            {
+                mHandler.removeCallbacks(mApplySearch);
+                mPendingSearchQuery = newText.trim();
+                mHandler.postDelayed(mApplySearch, SEARCH_DEBOUNCE_MS);
+                return true;
+            }
+        });
         return true;
     }
 
@@ -213,6 +613,14 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
                 // Insert pet
                 insertPet();
                 return true;
+            // Respond to a click on the "Import pets" menu option
+            case R.id.action_import:
+                // Let the user pick the file to import
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                intent.setType("*/*");
+                startActivityForResult(intent, REQUEST_IMPORT);
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 // Delete all the pets from the database
@@ -232,18 +640,68 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
                 PetEntry.COLUMN_PET_BREED
         };
 
-        return new CursorLoader(this, PetEntry.CONTENT_URI, projection, null, null, null);
+        // Only query the rows of the requested page, in a stable order. Start right after the
+        // last pet of the page before it when that is known, so deep pages stay as fast as the
+        // first one, otherwise fall back to the offset of the page.
+        int page = bundle.getInt(ARG_PAGE);
+
+        // Search results come in the order they are ranked in, so they are paged by offset
+        if (!TextUtils.isEmpty(mSearchQuery))
+        {
+            Uri searchUri = PetEntry.buildSearchUri(mSearchQuery,
+                    page * PetPagedAdapter.PAGE_SIZE, PetPagedAdapter.PAGE_SIZE);
+            return new CursorLoader(this, searchUri, projection, null, null, null);
+        }
+
+        Long afterId = mPetPagedAdapter.getPageStartAfterId(page);
+        Uri pageUri = afterId != null ?
+                PetEntry.buildKeysetUri(afterId, PetPagedAdapter.PAGE_SIZE) :
+                PetEntry.buildPageUri(page * PetPagedAdapter.PAGE_SIZE, PetPagedAdapter.PAGE_SIZE);
+
+        return new CursorLoader(this, pageUri, projection, null, null, PetEntry.SORT_ORDER_ID);
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor)
     {
-        mPetCursorAdapter.swapCursor(cursor);
+        int page = loader.getId() - PET_LOADER;
+
+        // Measure how long the search took from the pause in typing to its first results
+        if (page == 0 && mSearchStartTime != 0)
+        {
+            long latency = SystemClock.elapsedRealtime() - mSearchStartTime;
+            mSearchStartTime = 0;
+            if (latency > SEARCH_LATENCY_BUDGET_MS)
+            {
+                Log.w(LOG_TAG, "Search took " + latency + " ms, over the budget of " +
+                        SEARCH_LATENCY_BUDGET_MS + " ms");
+            }
+            else
+            {
+                Log.v(LOG_TAG, "Search took " + latency + " ms");
+            }
+        }
+
+        // If the page now ends at another pet, the next page has to start after that pet
+        if (mPetPagedAdapter.swapPage(page, cursor) &&
+                getLoaderManager().getLoader(PET_LOADER + page + 1) != null)
+        {
+            Bundle args = new Bundle();
+            args.putInt(ARG_PAGE, page + 1);
+            getLoaderManager().restartLoader(PET_LOADER + page + 1, args, this);
+        }
+
+        // Pages after the end of the pets are no longer needed
+        for (int nextPage = mPetPagedAdapter.getLastPage() + 1;
+             getLoaderManager().getLoader(PET_LOADER + nextPage) != null; nextPage++)
+        {
+            getLoaderManager().destroyLoader(PET_LOADER + nextPage);
+        }
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader)
     {
-        mPetCursorAdapter.swapCursor(null);
+        mPetPagedAdapter.swapPage(loader.getId() - PET_LOADER, null);
     }
 }
@@ -17,7 +17,6 @@ package com.example.android.pets;
 
 import android.app.AlertDialog;
 import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
@@ -38,16 +37,19 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
-import android.widget.CursorAdapter;
 import android.widget.EditText;
 import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.pets.data.Pet;
+import com.example.android.pets.data.PetAsyncWriter;
 import com.example.android.pets.data.PetContract;
 import com.example.android.pets.data.PetContract.PetEntry;
 import com.example.android.pets.data.PetDbHelper;
 import com.example.android.pets.data.PetProvider;
+import com.example.android.pets.data.PetRepository;
+import com.example.android.pets.data.PetWriteBehindQueue;
 
 /**
  * Allows user to create a new pet or edit an existing one.
@@ -60,9 +62,6 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     // Boolean for keeping track of if the user has made any edits
     private boolean mPetHasChanged = false;
 
-    /** Pet Cursor Adapter */
-    private CursorAdapter mPetCursorAdapter;
-
     private Uri mContentPetUri;
 
     /** EditText field to enter the pet's name */
@@ -131,6 +130,20 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
     }
 
+    @Override
+    protected void onPause()
+    {
+        super.onPause();
+
+        // The app may be going away, so write the queued saves now. A finishing editor goes
+        // back to the catalog, which flushes them when it is paused, so its saves can still be
+        // batched with the next ones.
+        if (!isFinishing())
+        {
+            PetWriteBehindQueue.getInstance(this).flush();
+        }
+    }
+
     /**
      * OnTouchListener that listens for if any edits have been made to the
      * Input fields of the editor so that the user can be warned before
@@ -247,58 +260,57 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         String breedString = mBreedEditText.getText().toString().trim();
         String weightString = mWeightEditText.getText().toString().trim();
 
-
-        // Creating an entry for the database
-        ContentValues values = createEntry(nameString, breedString, mGender, Integer.parseInt(weightString));
-
-        int rowsAffected = 0;
+        // The toast outlives the activity, which finishes before the pet is saved
+        final Context context = getApplicationContext();
+        PetAsyncWriter.Callback showResult = new PetAsyncWriter.Callback()
+        {
+            @Override
+            public void onWriteComplete(int rowsAffected)
+            {
+                showSaveResult(context, rowsAffected);
+            }
+        };
 
         if(!TextUtils.isEmpty(nameString) && !TextUtils.isEmpty(weightString))
         {
+            // Creating the pet for the database
+            Pet pet = new Pet(nameString, breedString, mGender, Integer.parseInt(weightString));
+            // Saves made in quick succession are written together in a single transaction
+            PetWriteBehindQueue queue = PetWriteBehindQueue.getInstance(this);
+
             if (mContentPetUri == null)
             {
-                // Insert the entry
-                Uri newUri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
-                rowsAffected++;
+                // Insert the pet
+                queue.insert(pet, showResult);
             }
             else
             {
-                rowsAffected = getContentResolver().update(mContentPetUri, values, null, null);
+                queue.update(mContentPetUri, pet, showResult);
             }
         }
-        // Show a toast message depending on whether or not the insertion was successful
-        if (rowsAffected == 0)
-        {
-            // If the new content URI is null, then there was an error with insertion.
-            Toast.makeText(this, getString(R.string.editor_insert_pet_failed),
-                    Toast.LENGTH_SHORT).show();
-        }
         else
         {
-            // Otherwise, the insertion was successful and we can display a toast.
-            Toast.makeText(this, getString(R.string.editor_insert_pet_successful),
-                    Toast.LENGTH_SHORT).show();
+            showResult.onWriteComplete(0);
         }
     }
 
     /**
-     * Creates entry for the database
-     * @param name - Name of the pet
-     * @param breed - Breed of the pet
-     * @param gender - Gender (0 - Unknown, 1 - Male, 2 - Female)
-     * @param weight - Weight (in kg) of the pet
-     * @return ContentValue for inserting into the database
+     * Shows a toast message depending on whether or not the pet was saved.
      */
-    private ContentValues createEntry(String name, String breed, int gender, int weight)
+    private static void showSaveResult(Context context, int rowsAffected)
     {
-        // Creating pet
-        ContentValues petValues = new ContentValues();
-        petValues.put(PetEntry.COLUMN_PET_NAME, name);
-        petValues.put(PetEntry.COLUMN_PET_BREED, breed);
-        petValues.put(PetEntry.COLUMN_PET_GENDER, gender);
-        petValues.put(PetEntry.COLUMN_PET_WEIGHT, weight);
-
-        return petValues;
+        if (rowsAffected == 0)
+        {
+            // If no rows were affected, then there was an error with saving.
+            Toast.makeText(context, context.getString(R.string.editor_insert_pet_failed),
+                    Toast.LENGTH_SHORT).show();
+        }
+        else
+        {
+            // Otherwise, the save was successful and we can display a toast.
+            Toast.makeText(context, context.getString(R.string.editor_insert_pet_successful),
+                    Toast.LENGTH_SHORT).show();
+        }
     }
 
     /**
@@ -312,21 +324,30 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         }
         else
         {
-            int numberOfPetsDeleted = getContentResolver().delete(mContentPetUri, null, null);
-
-            if(numberOfPetsDeleted == 0)
-            {
-                // Unable to delete pet
-                Toast.makeText(this, getString(R.string.editor_delete_pet_failed),
-                        Toast.LENGTH_SHORT).show();
-            }
-            else
+            // Write the queued saves first, so a queued save of this pet is not applied after
+            // the pet is deleted
+            PetWriteBehindQueue.getInstance(this).flush();
+            new PetAsyncWriter(getContentResolver()).delete(mContentPetUri,
+                    new PetAsyncWriter.Callback()
             {
-                // Pet was deleted
-                Toast.makeText(this, getString(R.string.editor_delete_pet_successful),
-                        Toast.LENGTH_SHORT).show();
-                finish();
-            }
+                @Override
+                public void onWriteComplete(int numberOfPetsDeleted)
+                {
+                    if(numberOfPetsDeleted == 0)
+                    {
+                        // Unable to delete pet
+                        Toast.makeText(EditorActivity.this, getString(R.string.editor_delete_pet_failed),
+                                Toast.LENGTH_SHORT).show();
+                    }
+                    else
+                    {
+                        // Pet was deleted
+                        Toast.makeText(EditorActivity.this, getString(R.string.editor_delete_pet_successful),
+                                Toast.LENGTH_SHORT).show();
+                        finish();
+                    }
+                }
+            });
         }
     }
 
@@ -468,16 +489,13 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         cursor.moveToFirst();
 
         // Get the attributes of the pet to fill View with
-        String petName = cursor.getString((cursor.getColumnIndex(PetEntry.COLUMN_PET_NAME)));
-        String petBreed = cursor.getString((cursor.getColumnIndex(PetEntry.COLUMN_PET_BREED)));
-        String petWeight = cursor.getString((cursor.getColumnIndex(PetEntry.COLUMN_PET_WEIGHT)));
-        int petGender = cursor.getInt((cursor.getColumnIndex(PetEntry.COLUMN_PET_GENDER)));
+        Pet pet = PetRepository.readPet(cursor);
 
         // Give the views the appropriate values
-        mNameEditText.setText(petName, TextView.BufferType.EDITABLE);
-        mBreedEditText.setText(petBreed, TextView.BufferType.EDITABLE);
-        mWeightEditText.setText(petWeight, TextView.BufferType.EDITABLE);
-        mGenderSpinner.setSelection(petGender);
+        mNameEditText.setText(pet.getName(), TextView.BufferType.EDITABLE);
+        mBreedEditText.setText(pet.getBreed(), TextView.BufferType.EDITABLE);
+        mWeightEditText.setText(String.valueOf(pet.getWeight()), TextView.BufferType.EDITABLE);
+        mGenderSpinner.setSelection(pet.getGender());
     }
 
     @Override
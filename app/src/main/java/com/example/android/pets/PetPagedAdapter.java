@@ -0,0 +1,448 @@
+package com.example.android.pets;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.example.android.pets.data.PetContract;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Adapter that shows the pets one page at a time. Every page is copied out of its own small
+ * {@link Cursor}, so only the pages around the visible rows have to be held in memory. Rows of
+ * pages that are not loaded are shown as empty placeholders until their page arrives.
+ *
+ * When a page is loaded again after its pets changed, the difference between the old and
+ * the new rows is worked out off the main thread, so only the rows that changed get bound again.
+ */
+public class PetPagedAdapter extends RecyclerView.Adapter<PetPagedAdapter.ViewHolder>
+{
+    // Number of pets in a single page
+    public static final int PAGE_SIZE = 50;
+
+    /**
+     * Listener for clicks on the pets of the list.
+     */
+    public interface OnPetClickListener
+    {
+        void onPetClick(long id);
+    }
+
+    // Diffs of the reloaded pages are worked out on this thread, in the order the pages arrive
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private final OnPetClickListener mListener;
+
+    // Shown for pets without a breed, looked up once instead of on every bind
+    private final String mUnknownBreed;
+
+    // Rows of the pages that are currently loaded, by page number
+    private final SparseArray<Page> mPages = new SparseArray<Page>();
+
+    // Number of rows of every page that has been loaded so far, kept after the page is released
+    // so the rows keep their positions in the list
+    private final SparseIntArray mPageCounts = new SparseIntArray();
+
+    // ID of the last pet on every page that has been loaded so far, the next page starts after it
+    private final SparseArray<Long> mPageEndIds = new SparseArray<Long>();
+
+    // Bumped on every change to a page, so a diff that was worked out for an older
+    // version of the page is dropped instead of applied
+    private final SparseIntArray mPageVersions = new SparseIntArray();
+    private int mGeneration;
+
+    // Highest page number that has been loaded so far, or -1 before the first page
+    private int mLastPage = -1;
+
+    public PetPagedAdapter(Context context, OnPetClickListener listener)
+    {
+        mListener = listener;
+        mUnknownBreed = context.getString(R.string.unknown_pet_breed);
+    }
+
+    /**
+     * Holds the views of a list item, so they are only looked up when the item is inflated.
+     */
+    class ViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener
+    {
+        final TextView nameView;
+        final TextView summaryView;
+
+        // ID of the bound pet, or -1 for a placeholder
+        long id = -1;
+
+        ViewHolder(View view)
+        {
+            super(view);
+            nameView = (TextView) view.findViewById(R.id.name);
+            summaryView = (TextView) view.findViewById(R.id.summary);
+            view.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view)
+        {
+            // The page of the pet is still loading
+            if (id != -1)
+            {
+                mListener.onPetClick(id);
+            }
+        }
+    }
+
+    /**
+     * Rows of a single page, copied out of the cursor so they can be compared off the main
+     * thread after the loader has closed the cursor.
+     */
+    private static class Page
+    {
+        final long[] ids;
+        final String[] names;
+        final String[] breeds;
+
+        Page(Cursor cursor)
+        {
+            int idColumn = cursor.getColumnIndex(PetContract.PetEntry._ID);
+            int nameColumn = cursor.getColumnIndex(PetContract.PetEntry.COLUMN_PET_NAME);
+            int breedColumn = cursor.getColumnIndex(PetContract.PetEntry.COLUMN_PET_BREED);
+
+            int count = cursor.getCount();
+            ids = new long[count];
+            names = new String[count];
+            breeds = new String[count];
+
+            cursor.moveToPosition(-1);
+            for (int i = 0; cursor.moveToNext(); i++)
+            {
+                ids[i] = cursor.getLong(idColumn);
+                names[i] = cursor.getString(nameColumn);
+                breeds[i] = cursor.getString(breedColumn);
+            }
+        }
+
+        int size()
+        {
+            return ids.length;
+        }
+    }
+
+    /**
+     * Swaps in the rows of the given page. A null cursor releases the page, its rows stay
+     * in the list as placeholders. The cursor is not closed, that is up to its loader.
+     * Returns whether or not the ID of the last pet on the page changed, in which case the
+     * page after it has to be loaded again.
+     */
+    public boolean swapPage(final int page, Cursor cursor)
+    {
+        final int version = mPageVersions.get(page) + 1;
+        mPageVersions.put(page, version);
+
+        if (cursor == null)
+        {
+            if (mPages.get(page) != null)
+            {
+                mPages.remove(page);
+                notifyItemRangeChanged(page * PAGE_SIZE, mPageCounts.get(page));
+            }
+            return false;
+        }
+
+        final Page newPage = new Page(cursor);
+        int count = newPage.size();
+
+        // Remember where the next page starts
+        boolean endChanged = false;
+        if (count > 0)
+        {
+            Long endId = newPage.ids[count - 1];
+            Long oldEndId = mPageEndIds.get(page);
+            endChanged = oldEndId != null && !oldEndId.equals(endId);
+            mPageEndIds.put(page, endId);
+        }
+
+        // A page that is not full is the end of the list, forget the pages after it right away
+        if (count < PAGE_SIZE && page < mLastPage)
+        {
+            int oldItemCount = getItemCount();
+            for (int later = page + 1; later <= mLastPage; later++)
+            {
+                mPages.remove(later);
+                mPageCounts.delete(later);
+                mPageEndIds.remove(later);
+                mPageVersions.put(later, mPageVersions.get(later) + 1);
+            }
+            mLastPage = page;
+            notifyItemRangeRemoved((page + 1) * PAGE_SIZE, oldItemCount - (page + 1) * PAGE_SIZE);
+        }
+
+        final Page oldPage = mPages.get(page);
+        if (oldPage == null || page > mLastPage)
+        {
+            // Nothing on screen to compare the rows to
+            applyPage(page, newPage, null);
+            return endChanged;
+        }
+
+        // Work out which rows changed off the main thread, then apply the rows together with
+        // the changes, unless the page changed again in the meantime
+        final int generation = mGeneration;
+        DIFF_EXECUTOR.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                final DiffUtil.DiffResult diff = diffPages(oldPage, newPage);
+                mHandler.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        if (generation == mGeneration && version == mPageVersions.get(page))
+                        {
+                            applyPage(page, newPage, diff);
+                        }
+                    }
+                });
+            }
+        });
+        return endChanged;
+    }
+
+    /**
+     * Puts the rows of the page in place and tells the list which of its items changed,
+     * through the diff if there is one, or else by the ranges of the page.
+     */
+    private void applyPage(int page, Page newPage, DiffUtil.DiffResult diff)
+    {
+        int start = page * PAGE_SIZE;
+        int count = newPage.size();
+
+        if (page > mLastPage)
+        {
+            mPages.put(page, newPage);
+            mPageCounts.put(page, count);
+            mLastPage = page;
+            notifyItemRangeInserted(start, count);
+            return;
+        }
+
+        int oldCount = mPageCounts.get(page);
+        mPages.put(page, newPage);
+        mPageCounts.put(page, count);
+
+        if (diff != null)
+        {
+            diff.dispatchUpdatesTo(new OffsetUpdateCallback(start));
+            return;
+        }
+
+        notifyItemRangeChanged(start, Math.min(oldCount, count));
+        if (count > oldCount)
+        {
+            notifyItemRangeInserted(start + oldCount, count - oldCount);
+        }
+        else if (count < oldCount)
+        {
+            notifyItemRangeRemoved(start + count, oldCount - count);
+        }
+    }
+
+    /**
+     * Works out the changes between the old and the new rows of a page, matching the rows by ID.
+     */
+    private static DiffUtil.DiffResult diffPages(final Page oldPage, final Page newPage)
+    {
+        return DiffUtil.calculateDiff(new DiffUtil.Callback()
+        {
+            @Override
+            public int getOldListSize()
+            {
+                return oldPage.size();
+            }
+
+            @Override
+            public int getNewListSize()
+            {
+                return newPage.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition)
+            {
+                return oldPage.ids[oldItemPosition] == newPage.ids[newItemPosition];
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition)
+            {
+                return TextUtils.equals(oldPage.names[oldItemPosition], newPage.names[newItemPosition]) &&
+                        TextUtils.equals(oldPage.breeds[oldItemPosition], newPage.breeds[newItemPosition]);
+            }
+        }, false);
+    }
+
+    /**
+     * Passes the changes of a page on to the list, moved to where the page starts.
+     */
+    private class OffsetUpdateCallback implements ListUpdateCallback
+    {
+        private final int mOffset;
+
+        OffsetUpdateCallback(int offset)
+        {
+            mOffset = offset;
+        }
+
+        @Override
+        public void onInserted(int position, int count)
+        {
+            notifyItemRangeInserted(mOffset + position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count)
+        {
+            notifyItemRangeRemoved(mOffset + position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition)
+        {
+            notifyItemMoved(mOffset + fromPosition, mOffset + toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload)
+        {
+            notifyItemRangeChanged(mOffset + position, count, payload);
+        }
+    }
+
+    /**
+     * Returns the ID of the last pet before the given page, or null if it is not known
+     * (or the page is the first one).
+     */
+    public Long getPageStartAfterId(int page)
+    {
+        return page == 0 ? null : mPageEndIds.get(page - 1);
+    }
+
+    /**
+     * Forgets all the pages, for when the pages have to be loaded again from the start.
+     */
+    public void clearPages()
+    {
+        mPages.clear();
+        mPageCounts.clear();
+        mPageEndIds.clear();
+        mPageVersions.clear();
+        mGeneration++;
+        mLastPage = -1;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Returns whether or not the rows of the given page are loaded.
+     */
+    public boolean isPageLoaded(int page)
+    {
+        return mPages.get(page) != null;
+    }
+
+    /**
+     * Returns the page numbers of all the pages that are currently loaded.
+     */
+    public int[] getLoadedPages()
+    {
+        int[] pages = new int[mPages.size()];
+        for (int i = 0; i < pages.length; i++)
+        {
+            pages[i] = mPages.keyAt(i);
+        }
+        return pages;
+    }
+
+    /**
+     * Returns the number of the last page loaded so far, or -1 before the first page.
+     */
+    public int getLastPage()
+    {
+        return mLastPage;
+    }
+
+    /**
+     * Returns whether or not there could be more pets after the last page loaded so far.
+     */
+    public boolean hasMorePages()
+    {
+        return mLastPage == -1 || mPageCounts.get(mLastPage) == PAGE_SIZE;
+    }
+
+    @Override
+    public int getItemCount()
+    {
+        if (mLastPage == -1)
+        {
+            return 0;
+        }
+
+        // Every page before the last one is full
+        return mLastPage * PAGE_SIZE + mPageCounts.get(mLastPage);
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType)
+    {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item, parent, false);
+        return new ViewHolder(view);
+    }
+
+    /**
+     * Populates the list item with the pet at the position, or leaves it empty if the
+     * page of the pet is not loaded.
+     */
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position)
+    {
+        Page page = mPages.get(position / PAGE_SIZE);
+        int row = position % PAGE_SIZE;
+
+        if (page == null || row >= page.size())
+        {
+            holder.id = -1;
+            holder.nameView.setText(null);
+            holder.summaryView.setText(null);
+            return;
+        }
+
+        // Extract data from the page
+        String name = page.names[row];
+        String breed = page.breeds[row];
+
+        // If there is no pet breed in the entry, set the view to show "Unknown Breed"
+        if(TextUtils.isEmpty(breed))
+        {
+            breed = mUnknownBreed;
+        }
+
+        // Populate the fields with the extracted data
+        holder.id = page.ids[row];
+        holder.nameView.setText(name);
+        holder.summaryView.setText(breed);
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.android.pets.data;
+
+import android.text.TextUtils;
+
+/**
+ * An immutable pet, with the values of a single row of the pets table.
+ */
+public final class Pet
+{
+    // ID of a pet that has not been saved in the database yet
+    public static final long NO_ID = -1;
+
+    private final long mId;
+    private final String mName;
+    private final String mBreed;
+    private final int mGender;
+    private final int mWeight;
+
+    public Pet(long id, String name, String breed, int gender, int weight)
+    {
+        mId = id;
+        mName = name;
+        mBreed = breed;
+        mGender = gender;
+        mWeight = weight;
+    }
+
+    /**
+     * Creates a pet that has not been saved in the database yet.
+     */
+    public Pet(String name, String breed, int gender, int weight)
+    {
+        this(NO_ID, name, breed, gender, weight);
+    }
+
+    /**
+     * Returns the ID of the pet, or {@link #NO_ID} if it has not been saved yet.
+     */
+    public long getId()
+    {
+        return mId;
+    }
+
+    public String getName()
+    {
+        return mName;
+    }
+
+    /**
+     * Returns the breed of the pet, or null if it is not known.
+     */
+    public String getBreed()
+    {
+        return mBreed;
+    }
+
+    /**
+     * Returns the gender of the pet, one of the PetEntry GENDER constants.
+     */
+    public int getGender()
+    {
+        return mGender;
+    }
+
+    /**
+     * Returns the weight of the pet in kg.
+     */
+    public int getWeight()
+    {
+        return mWeight;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+        {
+            return true;
+        }
+        if (!(o instanceof Pet))
+        {
+            return false;
+        }
+
+        Pet pet = (Pet) o;
+        return mId == pet.mId && mGender == pet.mGender && mWeight == pet.mWeight &&
+                TextUtils.equals(mName, pet.mName) && TextUtils.equals(mBreed, pet.mBreed);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = (int) (mId ^ (mId >>> 32));
+        result = 31 * result + (mName != null ? mName.hashCode() : 0);
+        result = 31 * result + (mBreed != null ? mBreed.hashCode() : 0);
+        result = 31 * result + mGender;
+        result = 31 * result + mWeight;
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Pet{id=" + mId + ", name=" + mName + ", breed=" + mBreed +
+                ", gender=" + mGender + ", weight=" + mWeight + "}";
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes pets through the {@link PetRepository} off the main thread. All the writes of the app
+ * run one after another on a single writer thread, in the order they were made, and the result
+ * of every write is reported back on the main thread.
+ *
+ * Saves queued in the {@link PetWriteBehindQueue} are only handed to the writer thread when
+ * it flushes, so flush it before writing around it.
+ */
+public class PetAsyncWriter
+{
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetAsyncWriter.class.getSimpleName();
+
+    /**
+     * Callback for when a write is done, called on the main thread.
+     */
+    public interface Callback
+    {
+        /**
+         * Called with the number of rows that were written, 0 if the write failed.
+         */
+        void onWriteComplete(int rowsAffected);
+    }
+
+    /**
+     * A write to run on the writer thread, returning the number of rows it wrote.
+     */
+    private interface Write
+    {
+        int run();
+    }
+
+    // The single thread all the writes run on
+    private static final Executor WRITER = Executors.newSingleThreadExecutor();
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+    private final PetRepository mRepository;
+
+    public PetAsyncWriter(ContentResolver resolver)
+    {
+        mRepository = new PetRepository(resolver);
+    }
+
+    /**
+     * Runs the task on the writer thread, after all the writes that were made before it.
+     */
+    public static void execute(Runnable task)
+    {
+        WRITER.execute(task);
+    }
+
+    /**
+     * Saves a new pet.
+     */
+    public void insert(final Pet pet, Callback callback)
+    {
+        submit(new Write()
+        {
+            @Override
+            public int run()
+            {
+                return mRepository.insert(pet) != null ? 1 : 0;
+            }
+        }, callback);
+    }
+
+    /**
+     * Saves the changes to the pet with the given content URI.
+     */
+    public void update(final Uri petUri, final Pet pet, Callback callback)
+    {
+        submit(new Write()
+        {
+            @Override
+            public int run()
+            {
+                return mRepository.update(petUri, pet);
+            }
+        }, callback);
+    }
+
+    /**
+     * Deletes the pets at the content URI, a single pet or all of them.
+     */
+    public void delete(final Uri uri, Callback callback)
+    {
+        submit(new Write()
+        {
+            @Override
+            public int run()
+            {
+                return mRepository.delete(uri);
+            }
+        }, callback);
+    }
+
+    /**
+     * Runs the write on the writer thread and reports its result on the main thread.
+     * A write that throws, like one the provider rejected as invalid, is reported as 0 rows.
+     */
+    private static void submit(final Write write, final Callback callback)
+    {
+        WRITER.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                int rows;
+                try
+                {
+                    rows = write.run();
+                }
+                catch (RuntimeException e)
+                {
+                    if (PetLog.E) PetLog.e(LOG_TAG, "Write failed", e);
+                    rows = 0;
+                }
+
+                if (callback != null)
+                {
+                    final int rowsAffected = rows;
+                    MAIN_HANDLER.post(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            callback.onWriteComplete(rowsAffected);
+                        }
+                    });
+                }
+            }
+        });
+    }
+}
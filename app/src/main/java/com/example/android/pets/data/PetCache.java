@@ -0,0 +1,194 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Least recently used cache of single pets by their ID, so opening a pet that was just read
+ * does not have to go to the database again. The cache is bounded by the estimated number of
+ * bytes of the pets it holds, and counts its hits, misses and evictions.
+ *
+ * Every write to the pets has to invalidate the pets it changed once the write is committed.
+ * A pet read from the database is only put in the cache if nothing was invalidated while it
+ * was being read, so a read that raced a write cannot put the old pet back.
+ */
+final class PetCache
+{
+    // Upper bound of the memory the cached pets take up
+    static final int DEFAULT_MAX_BYTES = 256 * 1024;
+
+    // Columns a pet can be read back with from the cache
+    static final String[] COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT
+    };
+
+    // Estimated size of a pet without its strings: object headers, fields and the cache entry
+    private static final int PET_OVERHEAD_BYTES = 96;
+
+    private final LruCache<Long, Pet> mPets;
+
+    // Bumped on every invalidation, guarded by the cache
+    private long mGeneration;
+
+    PetCache(int maxBytes)
+    {
+        mPets = new LruCache<Long, Pet>(maxBytes)
+        {
+            @Override
+            protected int sizeOf(Long id, Pet pet)
+            {
+                return PET_OVERHEAD_BYTES + sizeOf(pet.getName()) + sizeOf(pet.getBreed());
+            }
+
+            private int sizeOf(String string)
+            {
+                return string == null ? 0 : 40 + 2 * string.length();
+            }
+        };
+    }
+
+    /**
+     * Returns the cached pet with the given ID, or null if it is not cached.
+     */
+    Pet get(long id)
+    {
+        return mPets.get(id);
+    }
+
+    /**
+     * Returns the generation to pass to {@link #put(Pet, long)}, read it before the pet is
+     * read from the database.
+     */
+    synchronized long getGeneration()
+    {
+        return mGeneration;
+    }
+
+    /**
+     * Caches the pet, unless the cache was invalidated since the given generation.
+     */
+    synchronized void put(Pet pet, long generation)
+    {
+        if (generation == mGeneration)
+        {
+            mPets.put(pet.getId(), pet);
+        }
+    }
+
+    /**
+     * Drops the pet with the given ID from the cache.
+     */
+    synchronized void invalidate(long id)
+    {
+        mGeneration++;
+        mPets.remove(id);
+    }
+
+    /**
+     * Drops all the pets from the cache.
+     */
+    synchronized void invalidateAll()
+    {
+        mGeneration++;
+        mPets.evictAll();
+    }
+
+    /**
+     * Returns whether or not the projection only asks for columns the cache can serve.
+     * A null projection asks for all of the columns.
+     */
+    static boolean canServe(String[] projection)
+    {
+        if (projection == null)
+        {
+            return true;
+        }
+        for (String column : projection)
+        {
+            if (indexOfColumn(column) == -1)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a cursor with the columns of the projection, holding the pet if there is one.
+     */
+    static Cursor toCursor(Pet pet, String[] projection)
+    {
+        if (projection == null)
+        {
+            projection = COLUMNS;
+        }
+
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        if (pet != null)
+        {
+            Object[] row = new Object[projection.length];
+            for (int i = 0; i < projection.length; i++)
+            {
+                switch (indexOfColumn(projection[i]))
+                {
+                    case 0:
+                        row[i] = pet.getId();
+                        break;
+                    case 1:
+                        row[i] = pet.getName();
+                        break;
+                    case 2:
+                        row[i] = pet.getBreed();
+                        break;
+                    case 3:
+                        row[i] = pet.getGender();
+                        break;
+                    case 4:
+                        row[i] = pet.getWeight();
+                        break;
+                }
+            }
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    private static int indexOfColumn(String column)
+    {
+        for (int i = 0; i < COLUMNS.length; i++)
+        {
+            if (COLUMNS[i].equals(column))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    int hitCount()
+    {
+        return mPets.hitCount();
+    }
+
+    int missCount()
+    {
+        return mPets.missCount();
+    }
+
+    int evictionCount()
+    {
+        return mPets.evictionCount();
+    }
+
+    int sizeBytes()
+    {
+        return mPets.size();
+    }
+}
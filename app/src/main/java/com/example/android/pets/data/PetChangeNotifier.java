@@ -0,0 +1,207 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces the change notifications of the pets. All the URIs that change within a window
+ * are collected, and at the end of the window every URI is notified once. URIs that are
+ * descendants of another collected URI are dropped, since notifying the ancestor covers them.
+ * When more than {@link #MAX_URIS_PER_WINDOW} URIs are left, like when many single pets were
+ * written, their parents are notified instead. So however many writes happen, every observer
+ * is woken up only a few times per window.
+ */
+public class PetChangeNotifier
+{
+    // Default length of the window notifications are collected in
+    public static final long DEFAULT_WINDOW_MS = 100;
+
+    // Most URIs notified at the end of a window before they are merged into their parents
+    static final int MAX_URIS_PER_WINDOW = 8;
+
+    private final ContentResolver mResolver;
+    private final long mWindowMs;
+    private final Handler mHandler;
+
+    // URIs that changed in the current window, guarded by itself
+    private final Set<Uri> mPending = new LinkedHashSet<Uri>();
+    private boolean mDispatchPosted = false;
+
+    // Number of notifications that came in, and that were actually sent to the observers
+    private final AtomicLong mReceivedCount = new AtomicLong();
+    private final AtomicLong mDispatchedCount = new AtomicLong();
+
+    /**
+     * Sends the notifications collected in the window that just ended.
+     */
+    private final Runnable mDispatch = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            flush();
+        }
+    };
+
+    public PetChangeNotifier(ContentResolver resolver, long windowMs)
+    {
+        mResolver = resolver;
+        mWindowMs = windowMs;
+
+        HandlerThread thread = new HandlerThread(PetChangeNotifier.class.getSimpleName());
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Notifies the observers of the URI that it changed, at the end of the current window.
+     */
+    public void notifyChange(Uri uri)
+    {
+        mReceivedCount.incrementAndGet();
+
+        synchronized (mPending)
+        {
+            mPending.add(uri);
+            if (!mDispatchPosted)
+            {
+                mDispatchPosted = true;
+                mHandler.postDelayed(mDispatch, mWindowMs);
+            }
+        }
+    }
+
+    /**
+     * Sends the collected notifications right away, without waiting for the window to end.
+     */
+    public void flush()
+    {
+        List<Uri> uris;
+        synchronized (mPending)
+        {
+            mHandler.removeCallbacks(mDispatch);
+            mDispatchPosted = false;
+            uris = new ArrayList<Uri>(mPending);
+            mPending.clear();
+        }
+
+        uris = dropDescendants(uris);
+        while (uris.size() > MAX_URIS_PER_WINDOW)
+        {
+            List<Uri> parents = toParents(uris);
+            if (parents.size() == uris.size())
+            {
+                // Nothing left to merge
+                break;
+            }
+            uris = dropDescendants(parents);
+        }
+
+        for (Uri uri : uris)
+        {
+            mResolver.notifyChange(uri, null);
+            mDispatchedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the URIs without the ones that are descendants of another one of them.
+     */
+    private static List<Uri> dropDescendants(List<Uri> uris)
+    {
+        // Paths of all the URIs, to look their ancestors up in
+        Set<String> paths = new HashSet<String>();
+        for (Uri uri : uris)
+        {
+            paths.add(pathOf(uri));
+        }
+
+        List<Uri> kept = new ArrayList<Uri>(uris.size());
+        for (Uri uri : uris)
+        {
+            if (!hasAncestorIn(pathOf(uri), paths))
+            {
+                kept.add(uri);
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Returns the parents of the URIs, without duplicates. URIs without a path are kept.
+     */
+    private static List<Uri> toParents(List<Uri> uris)
+    {
+        Set<Uri> parents = new LinkedHashSet<Uri>();
+        for (Uri uri : uris)
+        {
+            List<String> segments = uri.getPathSegments();
+            if (segments.isEmpty())
+            {
+                parents.add(uri);
+                continue;
+            }
+
+            Uri.Builder parent = new Uri.Builder()
+                    .scheme(uri.getScheme())
+                    .authority(uri.getAuthority());
+            for (String segment : segments.subList(0, segments.size() - 1))
+            {
+                parent.appendPath(segment);
+            }
+            parents.add(parent.build());
+        }
+        return new ArrayList<Uri>(parents);
+    }
+
+    /**
+     * Returns the authority and path of the URI, like com.example.android.pets/pets/5.
+     */
+    private static String pathOf(Uri uri)
+    {
+        String path = uri.getPath();
+        return path == null ? uri.getAuthority() : uri.getAuthority() + path;
+    }
+
+    /**
+     * Returns whether or not any ancestor of the given path is one of the paths.
+     */
+    private static boolean hasAncestorIn(String path, Set<String> paths)
+    {
+        int slash;
+        while ((slash = path.lastIndexOf('/')) > 0)
+        {
+            path = path.substring(0, slash);
+            if (paths.contains(path))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of notifications that came in so far.
+     */
+    public long getReceivedCount()
+    {
+        return mReceivedCount.get();
+    }
+
+    /**
+     * Returns the number of notifications that were sent to the observers so far.
+     */
+    public long getDispatchedCount()
+    {
+        return mDispatchedCount.get();
+    }
+}
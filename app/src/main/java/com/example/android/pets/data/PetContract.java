@@ -11,6 +11,42 @@ public final class PetContract
     public static final String CONTENT_AUTHORITY = "com.example.android.pets";
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
     public static final String PATH_PETS = "pets";
+    public static final String PATH_SEARCH = "search";
+    public static final String PATH_EXPORT = "export";
+    public static final String PATH_SNAPSHOT = "snapshot";
+    public static final String PATH_METRICS = "_metrics";
+    public static final String PATH_SLOW_QUERIES = "_slow_queries";
+
+    // Query parameters for reading the pets one page at a time
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+    public static final String QUERY_PARAMETER_OFFSET = "offset";
+
+    // Query parameters for keyset paging, the page starts right after the row with these keys
+    public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+    public static final String QUERY_PARAMETER_AFTER_NAME = "after_name";
+
+    // Query parameter for the format of an export, and the formats it can take
+    public static final String QUERY_PARAMETER_FORMAT = "format";
+    public static final String FORMAT_CSV = "csv";
+    public static final String FORMAT_JSON = "json";
+
+    // MIME types of the export formats
+    public static final String MIME_TYPE_CSV = "text/csv";
+    public static final String MIME_TYPE_JSON = "application/json";
+
+    // Provider method that vacuums and analyzes the database when enough of it is free pages,
+    // its result holds the number of bytes that were reclaimed
+    public static final String METHOD_MAINTAIN = "maintain";
+    public static final String KEY_RECLAIMED_BYTES = "reclaimed_bytes";
+
+    // Provider method that replaces all of the pets with the ones of a snapshot, read from the
+    // file descriptor in its extras. Its result holds the number of pets that were restored.
+    public static final String METHOD_RESTORE_SNAPSHOT = "restore_snapshot";
+    public static final String KEY_SNAPSHOT = "snapshot";
+    public static final String KEY_RESTORED_ROWS = "restored_rows";
+
+    // MIME type of the binary snapshot of the pets
+    public static final String MIME_TYPE_SNAPSHOT = "application/octet-stream";
 
     private PetContract() {}
 
@@ -20,6 +56,12 @@ public final class PetContract
         // Complete content uri constant
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS);
 
+        /**
+         * Content URI to open with {@link ContentResolver#openInputStream} to read a binary
+         * snapshot of all the pets. Restore it with {@link PetContract#METHOD_RESTORE_SNAPSHOT}.
+         */
+        public static final Uri SNAPSHOT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SNAPSHOT);
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of pets.
          */
@@ -40,11 +82,96 @@ public final class PetContract
         public static final String COLUMN_PET_GENDER = "gender";
         public static final String COLUMN_PET_WEIGHT = "weight";
 
+        /**
+         * Sort orders that keyset pages are returned in. Ties are broken by {@link #_ID},
+         * so the order is stable and every row shows up on exactly one page.
+         */
+        public static final String SORT_ORDER_ID = _ID + " ASC";
+        public static final String SORT_ORDER_NAME =
+                COLUMN_PET_NAME + " COLLATE NOCASE ASC, " + _ID + " ASC";
+
         // Constants for the gender
         public static final int GENDER_UNKNOWN  = 0;
         public static final int GENDER_MALE     = 1;
         public static final int GENDER_FEMALE   = 2;
 
+        /**
+         * Returns the content URI for a single page of pets, starting at the given row offset
+         * and holding at most limit rows. Use a stable sort order when paging through the pets.
+         */
+        public static Uri buildPageUri(int offset, int limit)
+        {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_OFFSET, String.valueOf(offset))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Returns the content URI for the page of at most limit pets that comes right after the
+         * pet with the given ID, in {@link #SORT_ORDER_ID}. Unlike {@link #buildPageUri(int, int)}
+         * the cost of reading a page does not grow with how deep into the pets it is.
+         */
+        public static Uri buildKeysetUri(long afterId, int limit)
+        {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Returns the content URI for the page of at most limit pets that comes right after the
+         * pet with the given name and ID, in {@link #SORT_ORDER_NAME}.
+         */
+        public static Uri buildKeysetUri(String afterName, long afterId, int limit)
+        {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_NAME, afterName)
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Returns the content URI for searching the pets by name and breed. Every word of the
+         * query matches words starting with it, and pets whose name matches all of the words
+         * come before pets that only match through their breed.
+         */
+        public static Uri buildSearchUri(String query)
+        {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_SEARCH)
+                    .appendPath(query)
+                    .build();
+        }
+
+        /**
+         * Returns the content URI for a single page of the search results, starting at the
+         * given row offset and holding at most limit rows.
+         */
+        public static Uri buildSearchUri(String query, int offset, int limit)
+        {
+            return buildSearchUri(query).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_OFFSET, String.valueOf(offset))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Returns the content URI to open with {@link ContentResolver#openInputStream} to read
+         * all of the pets, in {@link PetContract#FORMAT_CSV} or {@link PetContract#FORMAT_JSON}.
+         * The pets are streamed out in the order of their IDs, in the columns the
+         * {@link PetImporter} reads.
+         */
+        public static Uri buildExportUri(String format)
+        {
+            return CONTENT_URI.buildUpon()
+                    .appendPath(PATH_EXPORT)
+                    .appendQueryParameter(QUERY_PARAMETER_FORMAT, format)
+                    .build();
+        }
+
         /**
          * Returns whether or not the given gender is {@link #GENDER_UNKNOWN}, {@link #GENDER_MALE},
          * or {@link #GENDER_FEMALE}.
@@ -57,4 +184,71 @@ public final class PetContract
             return false;
         }
     }
+
+    /**
+     * Metrics of the provider, a row for every operation on every URI pattern that was called,
+     * like "query pets/#", then a row for every counter of the caches, the notifications and
+     * the batches of the {@link PetWriteBehindQueue},
+     * with the value of the counter as its {@link #COLUMN_COUNT}. Latencies are in microseconds,
+     * and the percentiles are the upper bounds of power of two buckets. Only the queries the
+     * slow query log samples are timed, the rows and latencies of the queries only cover those.
+     */
+    public static abstract class MetricsEntry
+    {
+        // Content URI to query the metrics with
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_METRICS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the metrics.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" +
+                CONTENT_AUTHORITY + "/" + PATH_PETS + "/" + PATH_METRICS;
+
+        public static final String COLUMN_NAME = "name";
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_ERRORS = "errors";
+        public static final String COLUMN_ROWS = "rows";
+        public static final String COLUMN_TOTAL_US = "total_us";
+        public static final String COLUMN_P50_US = "p50_us";
+        public static final String COLUMN_P90_US = "p90_us";
+        public static final String COLUMN_P99_US = "p99_us";
+
+        // All of the columns, in the order of the metrics cursor
+        public static final String[] COLUMNS = {
+                COLUMN_NAME, COLUMN_COUNT, COLUMN_ERRORS, COLUMN_ROWS,
+                COLUMN_TOTAL_US, COLUMN_P50_US, COLUMN_P90_US, COLUMN_P99_US
+        };
+    }
+
+    /**
+     * Debug table of the sampled query shapes of the provider with the slowest single samples,
+     * slowest first. A shape is the table or search a query ran on, with its selection and sort
+     * order without any literals. Slow shapes come with the EXPLAIN QUERY PLAN of one of their
+     * slow samples, a line for every step, to tell which indexes they are missing.
+     */
+    public static abstract class SlowQueryEntry
+    {
+        // Content URI to query the slow queries with
+        public static final Uri CONTENT_URI =
+                Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_SLOW_QUERIES);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the slow queries.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/" +
+                CONTENT_AUTHORITY + "/" + PATH_PETS + "/" + PATH_SLOW_QUERIES;
+
+        public static final String COLUMN_SHAPE = "shape";
+        public static final String COLUMN_SAMPLES = "samples";
+        public static final String COLUMN_SLOW_SAMPLES = "slow_samples";
+        public static final String COLUMN_MEAN_US = "mean_us";
+        public static final String COLUMN_MAX_US = "max_us";
+        public static final String COLUMN_PLAN = "plan";
+
+        // All of the columns, in the order of the slow queries cursor
+        public static final String[] COLUMNS = {
+                COLUMN_SHAPE, COLUMN_SAMPLES, COLUMN_SLOW_SAMPLES,
+                COLUMN_MEAN_US, COLUMN_MAX_US, COLUMN_PLAN
+        };
+    }
 }
@@ -1,17 +1,23 @@
 package com.example.android.pets.data;
 
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.SystemClock;
 
 import com.example.android.pets.data.PetContract.PetEntry;
 
 public class PetDbHelper extends SQLiteOpenHelper
 {
     // Database name and version
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 3;
     public static final String DATABASE_NAME = "shelter.db";
 
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetDbHelper.class.getSimpleName();
+
     private static final String INTEGER_TYPE = " INTEGER";
     private static final String TEXT_TYPE = " TEXT";
     private static final String NOT_NULL_TYPE = " NOT NULL";
@@ -24,27 +30,205 @@ public class PetDbHelper extends SQLiteOpenHelper
                     PetEntry.COLUMN_PET_GENDER + INTEGER_TYPE + NOT_NULL_TYPE + COMMA_SEP +
                     PetEntry.COLUMN_PET_WEIGHT + INTEGER_TYPE + NOT_NULL_TYPE + " DEFAULT 0);";
 
-    private static final String SQL_DELETE_ENTRIES =
-            "DROP TABLE IF EXISTS " + PetEntry.TABLE_NAME;
+    // Secondary indexes for the columns the provider is queried and sorted by
+    private static final String SQL_CREATE_NAME_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + PetEntry.TABLE_NAME + "_name_idx ON " +
+                    PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_NAME + " COLLATE NOCASE);";
+    private static final String SQL_CREATE_BREED_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + PetEntry.TABLE_NAME + "_breed_idx ON " +
+                    PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_BREED + ");";
+    private static final String SQL_CREATE_GENDER_WEIGHT_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + PetEntry.TABLE_NAME + "_gender_weight_idx ON " +
+                    PetEntry.TABLE_NAME + " (" + PetEntry.COLUMN_PET_GENDER + COMMA_SEP +
+                    PetEntry.COLUMN_PET_WEIGHT + ");";
 
 
+    // Full-text index over the name and breed of the pets. Its docid is the _id of the pet,
+    // the triggers keep it in sync with every write to the pets table.
+    static final String FTS_TABLE_NAME = PetEntry.TABLE_NAME + "_fts";
+    private static final String SQL_CREATE_FTS_TABLE =
+            "CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts4(" +
+                    PetEntry.COLUMN_PET_NAME + COMMA_SEP + PetEntry.COLUMN_PET_BREED + ");";
+    private static final String SQL_FILL_FTS_TABLE =
+            "INSERT INTO " + FTS_TABLE_NAME + " (docid, " + PetEntry.COLUMN_PET_NAME + COMMA_SEP +
+                    PetEntry.COLUMN_PET_BREED + ") SELECT " + PetEntry._ID + COMMA_SEP +
+                    PetEntry.COLUMN_PET_NAME + COMMA_SEP + PetEntry.COLUMN_PET_BREED +
+                    " FROM " + PetEntry.TABLE_NAME + ";";
+    private static final String SQL_CREATE_FTS_INSERT_TRIGGER =
+            "CREATE TRIGGER " + FTS_TABLE_NAME + "_insert AFTER INSERT ON " + PetEntry.TABLE_NAME +
+                    " BEGIN INSERT INTO " + FTS_TABLE_NAME + " (docid, " + PetEntry.COLUMN_PET_NAME +
+                    COMMA_SEP + PetEntry.COLUMN_PET_BREED + ") VALUES (new." + PetEntry._ID +
+                    ", new." + PetEntry.COLUMN_PET_NAME + ", new." + PetEntry.COLUMN_PET_BREED + "); END;";
+    private static final String SQL_CREATE_FTS_UPDATE_TRIGGER =
+            "CREATE TRIGGER " + FTS_TABLE_NAME + "_update AFTER UPDATE OF " + PetEntry._ID +
+                    COMMA_SEP + PetEntry.COLUMN_PET_NAME + COMMA_SEP + PetEntry.COLUMN_PET_BREED +
+                    " ON " + PetEntry.TABLE_NAME +
+                    " BEGIN DELETE FROM " + FTS_TABLE_NAME + " WHERE docid = old." + PetEntry._ID + ";" +
+                    " INSERT INTO " + FTS_TABLE_NAME + " (docid, " + PetEntry.COLUMN_PET_NAME +
+                    COMMA_SEP + PetEntry.COLUMN_PET_BREED + ") VALUES (new." + PetEntry._ID +
+                    ", new." + PetEntry.COLUMN_PET_NAME + ", new." + PetEntry.COLUMN_PET_BREED + "); END;";
+    private static final String SQL_CREATE_FTS_DELETE_TRIGGER =
+            "CREATE TRIGGER " + FTS_TABLE_NAME + "_delete AFTER DELETE ON " + PetEntry.TABLE_NAME +
+                    " BEGIN DELETE FROM " + FTS_TABLE_NAME + " WHERE docid = old." + PetEntry._ID + "; END;";
 
     public PetDbHelper(Context context)
     {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+
+        // Use write-ahead logging, so readers keep reading the last committed data
+        // instead of waiting for a writer to finish
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+        {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db)
+    {
+        // With write-ahead logging a commit only has to append to the log, NORMAL skips the
+        // sync on every commit and still cannot corrupt the database
+        db.execSQL("PRAGMA synchronous = NORMAL");
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db)
+    {
+        super.onOpen(db);
+
+        // Before Jelly Bean write-ahead logging can only be turned on once the database is open
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly())
+        {
+            db.enableWriteAheadLogging();
+            db.execSQL("PRAGMA synchronous = NORMAL");
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase db)
     {
         db.execSQL(SQL_CREATE_ENTRIES);
+        createIndexes(db);
+        createSearchIndex(db);
+    }
+
+    /**
+     * Creates the secondary indexes on the pets table.
+     */
+    private static void createIndexes(SQLiteDatabase db)
+    {
+        db.execSQL(SQL_CREATE_NAME_INDEX);
+        db.execSQL(SQL_CREATE_BREED_INDEX);
+        db.execSQL(SQL_CREATE_GENDER_WEIGHT_INDEX);
+    }
+
+    /**
+     * Creates the full-text index of the pets and the triggers that keep it up to date,
+     * and fills it with the pets that are already in the table.
+     */
+    private static void createSearchIndex(SQLiteDatabase db)
+    {
+        db.execSQL(SQL_CREATE_FTS_TABLE);
+        db.execSQL(SQL_FILL_FTS_TABLE);
+        createSearchTriggers(db);
     }
 
+    /**
+     * Creates the triggers that copy every write to the pets table into the full-text index.
+     */
+    static void createSearchTriggers(SQLiteDatabase db)
+    {
+        db.execSQL(SQL_CREATE_FTS_INSERT_TRIGGER);
+        db.execSQL(SQL_CREATE_FTS_UPDATE_TRIGGER);
+        db.execSQL(SQL_CREATE_FTS_DELETE_TRIGGER);
+    }
+
+    /**
+     * Fills the full-text index again from the pets table, dropping whatever it held.
+     */
+    static void rebuildSearchIndex(SQLiteDatabase db)
+    {
+        db.execSQL("DELETE FROM " + FTS_TABLE_NAME + ";");
+        db.execSQL(SQL_FILL_FTS_TABLE);
+    }
+
+    /**
+     * Drops the triggers that keep the full-text index up to date.
+     */
+    static void dropSearchTriggers(SQLiteDatabase db)
+    {
+        db.execSQL("DROP TRIGGER IF EXISTS " + FTS_TABLE_NAME + "_insert;");
+        db.execSQL("DROP TRIGGER IF EXISTS " + FTS_TABLE_NAME + "_update;");
+        db.execSQL("DROP TRIGGER IF EXISTS " + FTS_TABLE_NAME + "_delete;");
+    }
+
+    /**
+     * Deletes all of the pets in a single transaction. Returns the number of pets that were
+     * deleted. The AUTOINCREMENT sequence is kept, so the IDs of the deleted pets are never
+     * given to new ones and stale pets/# URIs cannot point at another pet.
+     *
+     * SQLite can only clear a table without visiting every row when the table has no delete
+     * triggers, so the search triggers are dropped for the delete and the full-text index is
+     * cleared on its own instead.
+     */
+    static int truncate(SQLiteDatabase db)
+    {
+        db.beginTransaction();
+        try
+        {
+            int count = (int) DatabaseUtils.queryNumEntries(db, PetEntry.TABLE_NAME);
+
+            dropSearchTriggers(db);
+            db.execSQL("DELETE FROM " + PetEntry.TABLE_NAME + ";");
+            db.execSQL("DELETE FROM " + FTS_TABLE_NAME + ";");
+            createSearchTriggers(db);
+
+            db.setTransactionSuccessful();
+            return count;
+        }
+        finally
+        {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Upgrades the database one version at a time, keeping all of the existing pets.
+     * SQLiteOpenHelper runs this inside of a single transaction, so if any step fails
+     * none of the steps are committed and the database stays at the old version.
+     */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion)
     {
-        db.execSQL(SQL_DELETE_ENTRIES);
-        onCreate(db);
+        for (int version = oldVersion + 1; version <= newVersion; version++)
+        {
+            long start = SystemClock.elapsedRealtime();
+            migrate(db, version);
+            if (PetLog.I) PetLog.i(LOG_TAG, "Migrated " + DATABASE_NAME + " to version " +
+                    version + " in " + (SystemClock.elapsedRealtime() - start) + " ms");
+        }
+    }
+
+    /**
+     * Applies the single migration step that takes the database from the previous version
+     * up to the given version. Steps that change existing columns should copy the table into
+     * a new one and swap it in, since SQLite can only add columns with ALTER TABLE.
+     */
+    private static void migrate(SQLiteDatabase db, int toVersion)
+    {
+        switch (toVersion)
+        {
+            case 2:
+                // Version 2 added the secondary indexes
+                createIndexes(db);
+                break;
+            case 3:
+                // Version 3 added the full-text index over name and breed
+                createSearchIndex(db);
+                break;
+            default:
+                throw new IllegalStateException("No migration to version " + toVersion);
+        }
     }
 
     @Override
@@ -0,0 +1,54 @@
+package com.example.android.pets.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+
+/**
+ * Keeps the database file from growing with the pets that were deleted. SQLite only puts the
+ * pages of deleted rows on a free list, so once enough of the file is free pages it is rebuilt
+ * with VACUUM, and the statistics the query planner picks indexes by are refreshed with ANALYZE.
+ *
+ * Both rewrite the database, so this has to run off the main thread, outside of a transaction,
+ * at a time the app is idle.
+ */
+final class PetDbMaintenance
+{
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetDbMaintenance.class.getSimpleName();
+
+    // Share of the pages that have to be free before the database is vacuumed
+    static final float DEFAULT_FRAGMENTATION_THRESHOLD = 0.25f;
+
+    // Free space below which vacuuming is not worth it, however fragmented the database is
+    private static final long MIN_FREE_BYTES = 64 * 1024;
+
+    private PetDbMaintenance() {}
+
+    /**
+     * Vacuums and analyzes the database if at least the threshold share of its pages are free.
+     * Returns the number of bytes that were reclaimed, 0 if the database was left alone.
+     */
+    static long run(SQLiteDatabase db, float fragmentationThreshold)
+    {
+        long pageSize = DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+        long pageCount = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+        long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+
+        if (pageCount == 0 || freePages * pageSize < MIN_FREE_BYTES ||
+                freePages < fragmentationThreshold * pageCount)
+        {
+            return 0;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        db.execSQL("VACUUM");
+        db.execSQL("ANALYZE");
+
+        long reclaimedBytes =
+                (pageCount - DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)) * pageSize;
+        if (PetLog.I) PetLog.i(LOG_TAG, "Reclaimed " + reclaimedBytes + " bytes of " +
+                (pageCount * pageSize) + " in " + (SystemClock.elapsedRealtime() - start) + " ms");
+        return reclaimedBytes;
+    }
+}
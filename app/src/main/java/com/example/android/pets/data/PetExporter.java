@@ -0,0 +1,247 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.JsonWriter;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Streams all of the pets out as CSV or JSON, in the columns the {@link PetImporter} reads.
+ * The pets are read in chunks of {@link #CHUNK_SIZE} rows, every chunk starting right after the
+ * last ID of the chunk before it, so a chunk always fits in a single cursor window and the
+ * memory the export takes does not grow with the number of pets.
+ *
+ * The chunks are separate queries, so pets written while the export runs may or may not be
+ * in it, but no pet is ever exported twice.
+ */
+final class PetExporter
+{
+    // Number of pets read with a single query, a chunk of pets fits in one cursor window
+    static final int CHUNK_SIZE = 1000;
+
+    // Columns of the export, in the order they are written in
+    static final String[] COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT
+    };
+
+    // Indices of the columns in the cursor of a chunk
+    static final int ID = 0;
+    static final int NAME = 1;
+    static final int BREED = 2;
+    static final int GENDER = 3;
+    static final int WEIGHT = 4;
+
+    private static final String SELECTION_AFTER_ID = PetEntry._ID + " > ?";
+
+    private PetExporter() {}
+
+    /**
+     * Returns whether or not the pets can be exported in the format.
+     */
+    static boolean isSupportedFormat(String format)
+    {
+        return PetContract.FORMAT_CSV.equals(format) || PetContract.FORMAT_JSON.equals(format);
+    }
+
+    /**
+     * Returns the MIME type of the format.
+     */
+    static String getMimeType(String format)
+    {
+        return PetContract.FORMAT_JSON.equals(format) ?
+                PetContract.MIME_TYPE_JSON : PetContract.MIME_TYPE_CSV;
+    }
+
+    /**
+     * Writes all of the pets to the stream in the format. Does not close the stream.
+     */
+    static void export(SQLiteDatabase db, String format, OutputStream out) throws IOException
+    {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        RowWriter rows = PetContract.FORMAT_JSON.equals(format) ?
+                new JsonRowWriter(writer) : new CsvRowWriter(writer);
+
+        rows.begin();
+        long afterId = Long.MIN_VALUE;
+        while (true)
+        {
+            Cursor cursor = queryChunk(db, afterId);
+            int count;
+            try
+            {
+                count = cursor.getCount();
+                while (cursor.moveToNext())
+                {
+                    rows.write(cursor);
+                    afterId = cursor.getLong(ID);
+                }
+            }
+            finally
+            {
+                cursor.close();
+            }
+
+            // A short chunk is the last one
+            if (count < CHUNK_SIZE)
+            {
+                break;
+            }
+        }
+        rows.end();
+        writer.flush();
+    }
+
+    /**
+     * Returns the chunk of at most {@link #CHUNK_SIZE} pets that comes right after the pet
+     * with the given ID, with the {@link #COLUMNS}. Start at {@link Long#MIN_VALUE} for the
+     * first chunk, the chunk that holds less than {@link #CHUNK_SIZE} pets is the last one.
+     */
+    static Cursor queryChunk(SQLiteDatabase db, long afterId)
+    {
+        return db.query(PetEntry.TABLE_NAME, COLUMNS, SELECTION_AFTER_ID,
+                new String[] { Long.toString(afterId) }, null, null, PetEntry.SORT_ORDER_ID,
+                Integer.toString(CHUNK_SIZE));
+    }
+
+    /**
+     * Writes the pets of the cursor in one of the formats.
+     */
+    private interface RowWriter
+    {
+        void begin() throws IOException;
+
+        void write(Cursor cursor) throws IOException;
+
+        void end() throws IOException;
+    }
+
+    /**
+     * Writes a header line with the column names, then a line for every pet. Fields are only
+     * quoted when they have to be.
+     */
+    private static class CsvRowWriter implements RowWriter
+    {
+        private final Writer mWriter;
+
+        CsvRowWriter(Writer writer)
+        {
+            mWriter = writer;
+        }
+
+        @Override
+        public void begin() throws IOException
+        {
+            for (int i = 0; i < COLUMNS.length; i++)
+            {
+                if (i > 0)
+                {
+                    mWriter.write(',');
+                }
+                mWriter.write(COLUMNS[i]);
+            }
+            mWriter.write('\n');
+        }
+
+        @Override
+        public void write(Cursor cursor) throws IOException
+        {
+            mWriter.write(Long.toString(cursor.getLong(ID)));
+            mWriter.write(',');
+            writeField(cursor.getString(NAME));
+            mWriter.write(',');
+            writeField(cursor.getString(BREED));
+            mWriter.write(',');
+            mWriter.write(Integer.toString(cursor.getInt(GENDER)));
+            mWriter.write(',');
+            mWriter.write(Integer.toString(cursor.getInt(WEIGHT)));
+            mWriter.write('\n');
+        }
+
+        private void writeField(String field) throws IOException
+        {
+            if (field == null)
+            {
+                return;
+            }
+
+            boolean quote = false;
+            for (int i = 0; i < field.length() && !quote; i++)
+            {
+                char c = field.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+
+            if (!quote)
+            {
+                mWriter.write(field);
+                return;
+            }
+
+            mWriter.write('"');
+            for (int i = 0; i < field.length(); i++)
+            {
+                char c = field.charAt(i);
+                if (c == '"')
+                {
+                    mWriter.write('"');
+                }
+                mWriter.write(c);
+            }
+            mWriter.write('"');
+        }
+
+        @Override
+        public void end()
+        {
+        }
+    }
+
+    /**
+     * Writes an array with an object for every pet.
+     */
+    private static class JsonRowWriter implements RowWriter
+    {
+        private final JsonWriter mWriter;
+
+        JsonRowWriter(Writer writer)
+        {
+            mWriter = new JsonWriter(writer);
+        }
+
+        @Override
+        public void begin() throws IOException
+        {
+            mWriter.beginArray();
+        }
+
+        @Override
+        public void write(Cursor cursor) throws IOException
+        {
+            mWriter.beginObject();
+            mWriter.name(COLUMNS[ID]).value(cursor.getLong(ID));
+            mWriter.name(COLUMNS[NAME]).value(cursor.getString(NAME));
+            mWriter.name(COLUMNS[BREED]).value(cursor.getString(BREED));
+            mWriter.name(COLUMNS[GENDER]).value(cursor.getInt(GENDER));
+            mWriter.name(COLUMNS[WEIGHT]).value(cursor.getInt(WEIGHT));
+            mWriter.endObject();
+        }
+
+        @Override
+        public void end() throws IOException
+        {
+            mWriter.endArray();
+            mWriter.flush();
+        }
+    }
+}
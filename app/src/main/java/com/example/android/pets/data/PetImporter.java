@@ -0,0 +1,480 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.SystemClock;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Imports pets from CSV or JSON files. The file is read one row at a time and the rows are
+ * written in chunks with {@link ContentResolver#bulkInsert}, one transaction per chunk, so the
+ * memory the import takes does not grow with the size of the file.
+ *
+ * Every row is checked with the {@link PetValidator} before it is written. Invalid rows are
+ * reported to the {@link Listener} with the reason they were rejected and skipped, the rest of
+ * the file is still imported.
+ *
+ * A CSV file starts with a header naming its columns: name, breed, gender and weight, in any
+ * order. A JSON file holds an array of objects with the same keys. The gender is either the
+ * number of a {@link PetEntry} gender constant or one of unknown, male and female.
+ *
+ * Imports block until the whole file is read, so they have to run off the main thread,
+ * and an importer can only run one import at a time.
+ */
+public class PetImporter
+{
+    // Number of rows written in a single bulk insert
+    public static final int CHUNK_SIZE = 500;
+
+    /**
+     * Listener for the progress of an import, called on the thread the import runs on.
+     */
+    public interface Listener
+    {
+        /**
+         * Called for every row that was not imported, with its number in the file,
+         * starting at 1 for the first pet. A row the database rejects while its chunk is
+         * written cannot be told apart from the rest of the chunk, it is reported with the
+         * number of the first row of the chunk.
+         */
+        void onRowRejected(long row, String reason);
+
+        /**
+         * Called every time a chunk of rows was written.
+         */
+        void onProgress(long importedRows, long rejectedRows, long elapsedMs);
+    }
+
+    /**
+     * Number of rows an import wrote and rejected, and how long it took.
+     */
+    public static class Result
+    {
+        public final long importedRows;
+        public final long rejectedRows;
+        public final long elapsedMs;
+
+        Result(long importedRows, long rejectedRows, long elapsedMs)
+        {
+            this.importedRows = importedRows;
+            this.rejectedRows = rejectedRows;
+            this.elapsedMs = elapsedMs;
+        }
+
+        /**
+         * Returns the number of rows that were imported per second.
+         */
+        public double getRowsPerSecond()
+        {
+            return importedRows * 1000.0 / Math.max(elapsedMs, 1);
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final Listener mListener;
+
+    // Values of the chunk that is being read, reused for every chunk
+    private final ContentValues[] mChunk = new ContentValues[CHUNK_SIZE];
+    private int mChunkSize;
+
+    // Numbers of the first and the last row in the chunk
+    private long mChunkFirstRow;
+    private long mChunkLastRow;
+
+    private long mImportedRows;
+    private long mRejectedRows;
+    private long mStartTime;
+
+    public PetImporter(ContentResolver resolver, Listener listener)
+    {
+        mResolver = resolver;
+        mListener = listener;
+        for (int i = 0; i < CHUNK_SIZE; i++)
+        {
+            mChunk[i] = new ContentValues(4);
+        }
+    }
+
+    /**
+     * Imports the pets of a CSV file. Does not close the stream.
+     *
+     * @throws IOException if the file could not be read, or it has no name column
+     */
+    public Result importCsv(InputStream in) throws IOException
+    {
+        start();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+
+        // Find the columns by the names in the header
+        if (!readCsvRecord(reader, fields, field))
+        {
+            return finish();
+        }
+        Map<String, Integer> columns = new HashMap<String, Integer>();
+        for (int i = 0; i < fields.size(); i++)
+        {
+            columns.put(fields.get(i).trim().toLowerCase(Locale.US), i);
+        }
+        int nameColumn = indexOf(columns, PetEntry.COLUMN_PET_NAME);
+        int breedColumn = indexOf(columns, PetEntry.COLUMN_PET_BREED);
+        int genderColumn = indexOf(columns, PetEntry.COLUMN_PET_GENDER);
+        int weightColumn = indexOf(columns, PetEntry.COLUMN_PET_WEIGHT);
+        if (nameColumn == -1)
+        {
+            throw new IOException("CSV has no " + PetEntry.COLUMN_PET_NAME + " column");
+        }
+
+        long row = 0;
+        while (readCsvRecord(reader, fields, field))
+        {
+            // Skip empty lines
+            if (fields.size() == 1 && fields.get(0).trim().isEmpty())
+            {
+                continue;
+            }
+            row++;
+
+            ContentValues values = mChunk[mChunkSize];
+            values.clear();
+            values.put(PetEntry.COLUMN_PET_NAME, emptyToNull(fieldAt(fields, nameColumn)));
+            values.put(PetEntry.COLUMN_PET_BREED, emptyToNull(fieldAt(fields, breedColumn)));
+            values.put(PetEntry.COLUMN_PET_GENDER, parseGender(fieldAt(fields, genderColumn)));
+
+            String error = null;
+            String weight = fieldAt(fields, weightColumn);
+            if (!weight.isEmpty())
+            {
+                try
+                {
+                    values.put(PetEntry.COLUMN_PET_WEIGHT, Integer.parseInt(weight));
+                }
+                catch (NumberFormatException e)
+                {
+                    error = "Weight is not a number: " + weight;
+                }
+            }
+
+            add(row, error);
+        }
+
+        return finish();
+    }
+
+    /**
+     * Imports the pets of a JSON file. Does not close the stream.
+     *
+     * @throws IOException if the file could not be read or is not a JSON array
+     */
+    public Result importJson(InputStream in) throws IOException
+    {
+        start();
+
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        reader.beginArray();
+
+        long row = 0;
+        while (reader.hasNext())
+        {
+            row++;
+            ContentValues values = mChunk[mChunkSize];
+            values.clear();
+            add(row, readJsonPet(reader, values));
+        }
+
+        reader.endArray();
+        return finish();
+    }
+
+    /**
+     * Reads the next pet object of the array into the values. Returns the reason the pet is
+     * invalid, if reading it already showed that, or null. The whole object is always read.
+     */
+    private static String readJsonPet(JsonReader reader, ContentValues values) throws IOException
+    {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT)
+        {
+            reader.skipValue();
+            return "Pet is not an object";
+        }
+
+        String error = null;
+        reader.beginObject();
+        while (reader.hasNext())
+        {
+            String key = reader.nextName();
+            if (!isPetColumn(key))
+            {
+                // Keys that are not pet columns are ignored
+                reader.skipValue();
+            }
+            else if (reader.peek() == JsonToken.NULL)
+            {
+                // A null weight gets the column default, like a missing one
+                reader.nextNull();
+                if (!PetEntry.COLUMN_PET_WEIGHT.equals(key))
+                {
+                    values.putNull(key);
+                }
+            }
+            else if (reader.peek() != JsonToken.STRING && reader.peek() != JsonToken.NUMBER)
+            {
+                reader.skipValue();
+                error = "Pet " + key + " is not a string or a number";
+            }
+            else if (PetEntry.COLUMN_PET_NAME.equals(key) || PetEntry.COLUMN_PET_BREED.equals(key))
+            {
+                values.put(key, reader.nextString());
+            }
+            else if (PetEntry.COLUMN_PET_GENDER.equals(key))
+            {
+                values.put(key, parseGender(reader.nextString().trim()));
+            }
+            else if (PetEntry.COLUMN_PET_WEIGHT.equals(key))
+            {
+                String weight = reader.nextString().trim();
+                try
+                {
+                    values.put(key, Integer.parseInt(weight));
+                }
+                catch (NumberFormatException e)
+                {
+                    error = "Weight is not a number: " + weight;
+                }
+            }
+        }
+        reader.endObject();
+
+        // A pet without any name at all is rejected like one with a null name
+        if (!values.containsKey(PetEntry.COLUMN_PET_NAME))
+        {
+            values.putNull(PetEntry.COLUMN_PET_NAME);
+        }
+        // A pet without a gender is of unknown gender, like an empty CSV field
+        if (!values.containsKey(PetEntry.COLUMN_PET_GENDER))
+        {
+            values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_UNKNOWN);
+        }
+        return error;
+    }
+
+    private void start()
+    {
+        mChunkSize = 0;
+        mImportedRows = 0;
+        mRejectedRows = 0;
+        mStartTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Adds the row that was just read into the next values of the chunk, unless it is
+     * invalid, and writes the chunk once it is full.
+     */
+    private void add(long row, String error)
+    {
+        if (error == null)
+        {
+            error = PetValidator.validate(mChunk[mChunkSize]);
+        }
+
+        if (error != null)
+        {
+            mRejectedRows++;
+            if (mListener != null)
+            {
+                mListener.onRowRejected(row, error);
+            }
+            return;
+        }
+
+        if (mChunkSize == 0)
+        {
+            mChunkFirstRow = row;
+        }
+        mChunkLastRow = row;
+        mChunkSize++;
+        if (mChunkSize == CHUNK_SIZE)
+        {
+            writeChunk();
+        }
+    }
+
+    /**
+     * Writes the rows of the chunk with a single bulk insert. Rows the database rejects, like
+     * ones that break a table constraint, are counted as rejected.
+     */
+    private void writeChunk()
+    {
+        if (mChunkSize == 0)
+        {
+            return;
+        }
+
+        // The last chunk can be shorter, it still reuses the same values
+        ContentValues[] values = mChunk;
+        if (mChunkSize < CHUNK_SIZE)
+        {
+            values = new ContentValues[mChunkSize];
+            System.arraycopy(mChunk, 0, values, 0, mChunkSize);
+        }
+
+        int inserted = mResolver.bulkInsert(PetEntry.CONTENT_URI, values);
+        mImportedRows += inserted;
+        for (int i = inserted; i < mChunkSize; i++)
+        {
+            mRejectedRows++;
+            if (mListener != null)
+            {
+                mListener.onRowRejected(mChunkFirstRow, "Rejected by the database while " +
+                        "writing rows " + mChunkFirstRow + " to " + mChunkLastRow);
+            }
+        }
+        mChunkSize = 0;
+
+        if (mListener != null)
+        {
+            mListener.onProgress(mImportedRows, mRejectedRows,
+                    SystemClock.elapsedRealtime() - mStartTime);
+        }
+    }
+
+    private Result finish()
+    {
+        writeChunk();
+        return new Result(mImportedRows, mRejectedRows, SystemClock.elapsedRealtime() - mStartTime);
+    }
+
+    /**
+     * Reads the fields of the next CSV record. Fields can be quoted, with doubled quotes for
+     * quotes inside of them, and quoted fields can span lines. Returns false at the end of the
+     * file.
+     */
+    private static boolean readCsvRecord(BufferedReader reader, List<String> fields,
+                                         StringBuilder field) throws IOException
+    {
+        fields.clear();
+        field.setLength(0);
+
+        boolean read = false;
+        boolean quoted = false;
+        int c;
+        while ((c = reader.read()) != -1)
+        {
+            read = true;
+            if (quoted)
+            {
+                if (c != '"')
+                {
+                    field.append((char) c);
+                    continue;
+                }
+
+                // A doubled quote is a quote inside the field, a single one ends the quotes
+                reader.mark(1);
+                if (reader.read() == '"')
+                {
+                    field.append('"');
+                }
+                else
+                {
+                    quoted = false;
+                    reader.reset();
+                }
+            }
+            else if (c == '"')
+            {
+                quoted = true;
+            }
+            else if (c == ',')
+            {
+                fields.add(field.toString());
+                field.setLength(0);
+            }
+            else if (c == '\n')
+            {
+                break;
+            }
+            else if (c != '\r')
+            {
+                field.append((char) c);
+            }
+        }
+
+        if (!read)
+        {
+            return false;
+        }
+        fields.add(field.toString());
+        return true;
+    }
+
+    private static boolean isPetColumn(String key)
+    {
+        return PetEntry.COLUMN_PET_NAME.equals(key) || PetEntry.COLUMN_PET_BREED.equals(key) ||
+                PetEntry.COLUMN_PET_GENDER.equals(key) || PetEntry.COLUMN_PET_WEIGHT.equals(key);
+    }
+
+    private static int indexOf(Map<String, Integer> columns, String column)
+    {
+        Integer index = columns.get(column);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Returns the trimmed field in the column, or an empty string if the record has no field
+     * in it.
+     */
+    private static String fieldAt(List<String> fields, int column)
+    {
+        return column == -1 || column >= fields.size() ? "" : fields.get(column).trim();
+    }
+
+    private static String emptyToNull(String text)
+    {
+        return text.isEmpty() ? null : text;
+    }
+
+    /**
+     * Returns the gender constant for the text, {@link PetEntry#GENDER_UNKNOWN} if it is empty,
+     * or -1 if it is not a gender, which the validation then rejects.
+     */
+    private static int parseGender(String text)
+    {
+        if (text.isEmpty() || text.equalsIgnoreCase("unknown"))
+        {
+            return PetEntry.GENDER_UNKNOWN;
+        }
+        if (text.equalsIgnoreCase("male"))
+        {
+            return PetEntry.GENDER_MALE;
+        }
+        if (text.equalsIgnoreCase("female"))
+        {
+            return PetEntry.GENDER_FEMALE;
+        }
+
+        try
+        {
+            return Integer.parseInt(text);
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.android.pets.data;
+
+import android.util.Log;
+
+/**
+ * Leveled logging for the data layer, gated at compile time. Every level has a constant that
+ * says whether it is logged at all, guard every log call with it:
+ *
+ * <pre>
+ * if (PetLog.V) PetLog.v(LOG_TAG, "New row ID: " + id);
+ * </pre>
+ *
+ * The constants are compile-time constants, so the compiler drops the whole call of a level
+ * that is off, including building its message, and the hot paths allocate nothing for it.
+ * Raise or lower {@link #LEVEL} to change what the data layer logs.
+ */
+final class PetLog
+{
+    // Lowest level that is logged, one of the android.util.Log levels
+    static final int LEVEL = Log.INFO;
+
+    static final boolean V = LEVEL <= Log.VERBOSE;
+    static final boolean D = LEVEL <= Log.DEBUG;
+    static final boolean I = LEVEL <= Log.INFO;
+    static final boolean W = LEVEL <= Log.WARN;
+    static final boolean E = LEVEL <= Log.ERROR;
+
+    private PetLog() {}
+
+    static void v(String tag, String message)
+    {
+        Log.v(tag, message);
+    }
+
+    static void v(String tag, String message, Throwable throwable)
+    {
+        Log.v(tag, message, throwable);
+    }
+
+    static void d(String tag, String message)
+    {
+        Log.d(tag, message);
+    }
+
+    static void i(String tag, String message)
+    {
+        Log.i(tag, message);
+    }
+
+    static void w(String tag, String message, Throwable throwable)
+    {
+        Log.w(tag, message, throwable);
+    }
+
+    static void e(String tag, String message, Throwable throwable)
+    {
+        Log.e(tag, message, throwable);
+    }
+}
@@ -0,0 +1,263 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.pets.data.PetContract.MetricsEntry;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free registry of how the provider is used. For every operation on every URI pattern it
+ * counts the calls, the failed calls and the rows they returned or wrote, and keeps a
+ * histogram of their latencies with a bucket for every power of two microseconds.
+ *
+ * Recording only reads the clock and increments a few atomic counters, so it can stay on in
+ * production. The counters of a single call are not updated atomically together, so a reader
+ * may see a call in the count that is not in the histogram yet.
+ *
+ * Calls that are not worth timing on their own, like queries that only run in SQLite once
+ * their cursor is read, can be recorded untimed. They are counted, but add no rows or latency.
+ */
+final class PetMetrics
+{
+    // Operations of the provider
+    static final int OP_QUERY = 0;
+    static final int OP_INSERT = 1;
+    static final int OP_BULK_INSERT = 2;
+    static final int OP_UPDATE = 3;
+    static final int OP_DELETE = 4;
+    static final int OP_APPLY_BATCH = 5;
+    private static final String[] OPERATION_NAMES = {
+            "query", "insert", "bulk_insert", "update", "delete", "apply_batch"
+    };
+
+    // Latency buckets, bucket i counts the calls that took from 2^i up to 2^(i+1) microseconds
+    // and bucket 0 also counts the ones under a microsecond
+    private static final int BUCKETS = 32;
+
+    // Counters of every slot
+    private static final int COUNT = 0;
+    private static final int ERRORS = 1;
+    private static final int ROWS = 2;
+    private static final int TOTAL_NANOS = 3;
+    private static final int COUNTERS = 4;
+
+    private final int mFirstMatch;
+    private final String[] mMatchNames;
+
+    // One slot for every operation and URI pattern, the last pattern slot is for unknown URIs
+    private final int mMatchSlots;
+    private final AtomicLongArray mCounters;
+    private final AtomicLongArray mHistograms;
+
+    /**
+     * Creates the registry for the URI patterns of the provider, named in the order of their
+     * match codes, starting with the given first match code.
+     */
+    PetMetrics(int firstMatch, String[] matchNames)
+    {
+        mFirstMatch = firstMatch;
+        mMatchNames = matchNames;
+        mMatchSlots = matchNames.length + 1;
+
+        int slots = OPERATION_NAMES.length * mMatchSlots;
+        mCounters = new AtomicLongArray(slots * COUNTERS);
+        mHistograms = new AtomicLongArray(slots * BUCKETS);
+    }
+
+    /**
+     * Returns the time to pass to {@link #record} as the start of a call.
+     */
+    static long now()
+    {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a call of the operation on the URI with the match code, that started at the
+     * given {@link #now()} time.
+     */
+    void record(int operation, int match, long startNanos, long rows, boolean failed)
+    {
+        long nanos = System.nanoTime() - startNanos;
+        int slot = slotOf(operation, match);
+
+        int counters = slot * COUNTERS;
+        mCounters.incrementAndGet(counters + COUNT);
+        if (failed)
+        {
+            mCounters.incrementAndGet(counters + ERRORS);
+        }
+        if (rows > 0)
+        {
+            mCounters.addAndGet(counters + ROWS, rows);
+        }
+        mCounters.addAndGet(counters + TOTAL_NANOS, nanos);
+
+        mHistograms.incrementAndGet(slot * BUCKETS + bucketOf(nanos / 1000));
+    }
+
+    /**
+     * Records a call of the operation on the URI with the match code that was not timed.
+     */
+    void recordUntimed(int operation, int match, boolean failed)
+    {
+        int counters = slotOf(operation, match) * COUNTERS;
+        mCounters.incrementAndGet(counters + COUNT);
+        if (failed)
+        {
+            mCounters.incrementAndGet(counters + ERRORS);
+        }
+    }
+
+    private int slotOf(int operation, int match)
+    {
+        int matchSlot = match - mFirstMatch;
+        if (matchSlot < 0 || matchSlot >= mMatchNames.length)
+        {
+            matchSlot = mMatchNames.length;
+        }
+        return operation * mMatchSlots + matchSlot;
+    }
+
+    private static int bucketOf(long micros)
+    {
+        if (micros <= 1)
+        {
+            return 0;
+        }
+        return Math.min(63 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+    }
+
+    /**
+     * Returns the number of timed calls of the slot, the calls in its histogram.
+     */
+    private long timedCount(int slot)
+    {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            count += mHistograms.get(slot * BUCKETS + i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the upper bound in microseconds of the bucket that holds the given share of the
+     * timed calls of the slot, 0 if there were none.
+     */
+    private long percentileMicros(int slot, long timedCount, double share)
+    {
+        long target = (long) Math.ceil(timedCount * share);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += mHistograms.get(slot * BUCKETS + i);
+            if (seen >= target && seen > 0)
+            {
+                return 1L << (i + 1);
+            }
+        }
+        return 0;
+    }
+
+    private String nameOf(int slot)
+    {
+        int matchSlot = slot % mMatchSlots;
+        return OPERATION_NAMES[slot / mMatchSlots] + " " +
+                (matchSlot < mMatchNames.length ? mMatchNames[matchSlot] : "unknown");
+    }
+
+    /**
+     * Returns a cursor with the {@link MetricsEntry} columns, holding a row for every operation
+     * and URI pattern that was called at least once, followed by a row for every extra counter,
+     * with its value as the count.
+     */
+    Cursor toCursor(String[] counterNames, long[] counterValues)
+    {
+        MatrixCursor cursor = new MatrixCursor(MetricsEntry.COLUMNS);
+
+        int slots = OPERATION_NAMES.length * mMatchSlots;
+        for (int slot = 0; slot < slots; slot++)
+        {
+            int counters = slot * COUNTERS;
+            long count = mCounters.get(counters + COUNT);
+            if (count == 0)
+            {
+                continue;
+            }
+
+            long timedCount = timedCount(slot);
+            cursor.addRow(new Object[] {
+                    nameOf(slot),
+                    count,
+                    mCounters.get(counters + ERRORS),
+                    mCounters.get(counters + ROWS),
+                    mCounters.get(counters + TOTAL_NANOS) / 1000,
+                    percentileMicros(slot, timedCount, 0.5),
+                    percentileMicros(slot, timedCount, 0.9),
+                    percentileMicros(slot, timedCount, 0.99)
+            });
+        }
+
+        for (int i = 0; i < counterNames.length; i++)
+        {
+            cursor.addRow(new Object[] { counterNames[i], counterValues[i], 0, 0, 0, 0, 0, 0 });
+        }
+        return cursor;
+    }
+
+    /**
+     * Writes the metrics of every operation and URI pattern that was called at least once,
+     * with their latency histograms, followed by the extra counters.
+     */
+    void dump(PrintWriter writer, String[] counterNames, long[] counterValues)
+    {
+        int slots = OPERATION_NAMES.length * mMatchSlots;
+        for (int slot = 0; slot < slots; slot++)
+        {
+            int counters = slot * COUNTERS;
+            long count = mCounters.get(counters + COUNT);
+            if (count == 0)
+            {
+                continue;
+            }
+
+            writer.print(nameOf(slot));
+            writer.print(": count=");
+            writer.print(count);
+            writer.print(" timed=");
+            writer.print(timedCount(slot));
+            writer.print(" errors=");
+            writer.print(mCounters.get(counters + ERRORS));
+            writer.print(" rows=");
+            writer.print(mCounters.get(counters + ROWS));
+            writer.print(" total_us=");
+            writer.println(mCounters.get(counters + TOTAL_NANOS) / 1000);
+
+            // Buckets that counted any calls, by their upper bound
+            writer.print("  histogram:");
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                long calls = mHistograms.get(slot * BUCKETS + i);
+                if (calls > 0)
+                {
+                    writer.print(" <");
+                    writer.print(1L << (i + 1));
+                    writer.print("us=");
+                    writer.print(calls);
+                }
+            }
+            writer.println();
+        }
+
+        for (int i = 0; i < counterNames.length; i++)
+        {
+            writer.print(counterNames[i]);
+            writer.print(": ");
+            writer.println(counterValues[i]);
+        }
+    }
+}
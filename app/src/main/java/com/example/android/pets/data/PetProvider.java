@@ -1,17 +1,37 @@
 package com.example.android.pets.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
-import android.util.Log;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.text.TextUtils;
 
 import com.example.android.pets.data.PetContract.PetEntry;
 
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
 /**
  * {@link ContentProvider} for Pets app.
  */
@@ -20,6 +40,11 @@ public class PetProvider extends ContentProvider
     // Constants for URI matcher
     private static final int PETS = 100;
     private static final int PET_ID = 101;
+    private static final int PET_SEARCH = 102;
+    private static final int PET_EXPORT = 103;
+    private static final int PET_SNAPSHOT = 104;
+    private static final int PET_METRICS = 105;
+    private static final int PET_SLOW_QUERIES = 106;
 
     // Creating Uri matcher
     private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
@@ -29,11 +54,67 @@ public class PetProvider extends ContentProvider
         // Creating Uri patterns for given paths
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS, PETS);
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS + "/#", PET_ID);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_SEARCH + "/*", PET_SEARCH);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_EXPORT, PET_EXPORT);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_SNAPSHOT, PET_SNAPSHOT);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_METRICS, PET_METRICS);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY,
+                PetContract.PATH_PETS + "/" + PetContract.PATH_SLOW_QUERIES, PET_SLOW_QUERIES);
     }
 
+    // Pets joined with their best full-text match, a match on the name ranks above a match
+    // anywhere. Takes the name match and the match anywhere as its two arguments.
+    private static final String SEARCH_TABLES =
+            PetEntry.TABLE_NAME + " JOIN (SELECT docid, MIN(rank) AS rank FROM (" +
+                    "SELECT docid, 0 AS rank FROM " + PetDbHelper.FTS_TABLE_NAME + " WHERE " +
+                    PetDbHelper.FTS_TABLE_NAME + " MATCH ? UNION ALL " +
+                    "SELECT docid, 1 AS rank FROM " + PetDbHelper.FTS_TABLE_NAME + " WHERE " +
+                    PetDbHelper.FTS_TABLE_NAME + " MATCH ?) GROUP BY docid) AS search ON " +
+                    PetEntry.TABLE_NAME + "." + PetEntry._ID + " = search.docid";
+    private static final String SEARCH_SORT_ORDER =
+            "search.rank, " + PetEntry.TABLE_NAME + "." + PetEntry.SORT_ORDER_NAME;
+
     // Database helper object
     private PetDbHelper mDbHelper;
 
+    // Compiled statements for the hot write paths, one cache for every thread that writes
+    private final ThreadLocal<PetStatementCache> mStatements = new ThreadLocal<PetStatementCache>()
+    {
+        @Override
+        protected PetStatementCache initialValue()
+        {
+            return new PetStatementCache(mDbHelper.getWritableDatabase());
+        }
+    };
+
+    // Recently read single pets, served for pets/# queries
+    private final PetCache mPetCache = new PetCache(PetCache.DEFAULT_MAX_BYTES);
+
+    // Merges the change notifications of writes that come in quick succession
+    private PetChangeNotifier mChangeNotifier;
+
+    // Latencies, rows and errors of every operation, by the URI patterns in match code order
+    private final PetMetrics mMetrics = new PetMetrics(PETS, new String[] {
+            PetContract.PATH_PETS,
+            PetContract.PATH_PETS + "/#",
+            PetContract.PATH_PETS + "/" + PetContract.PATH_SEARCH + "/*",
+            PetContract.PATH_PETS + "/" + PetContract.PATH_EXPORT,
+            PetContract.PATH_PETS + "/" + PetContract.PATH_SNAPSHOT,
+            PetContract.PATH_PETS + "/" + PetContract.PATH_METRICS,
+            PetContract.PATH_PETS + "/" + PetContract.PATH_SLOW_QUERIES
+    });
+
+    // Sampled timings of the query shapes, with the plans of the slow ones
+    private final PetQueryLog mQueryLog = new PetQueryLog();
+
+    // Set while applyBatch is running on the calling thread. The single operations collect
+    // the URIs they changed in here, and they are notified once the whole batch is committed.
+    private final ThreadLocal<Set<Uri>> mBatchNotifications = new ThreadLocal<Set<Uri>>();
+
     /** Tag for the log messages */
     public static final String LOG_TAG = PetProvider.class.getSimpleName();
 
@@ -43,6 +124,8 @@ public class PetProvider extends ContentProvider
     @Override
     public boolean onCreate() {
         mDbHelper = new PetDbHelper(getContext());
+        mChangeNotifier = new PetChangeNotifier(getContext().getContentResolver(),
+                PetChangeNotifier.DEFAULT_WINDOW_MS);
         return true;
     }
 
@@ -52,6 +135,71 @@ public class PetProvider extends ContentProvider
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder)
+    {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Perform the query for the given URI, like {@link #query(Uri, String[], String, String[], String)}.
+     * Once the cancellation signal is cancelled, the query stops running in SQLite and throws
+     * {@link android.os.OperationCanceledException}. The signal is only ever passed in on
+     * Jelly Bean and up, older versions always call the query without it.
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal cancellationSignal)
+    {
+        // Get the Uri match
+        int match = sUriMatcher.match(uri);
+
+        // Reading the metrics is not recorded in them
+        if (match == PET_METRICS)
+        {
+            return mMetrics.toCursor(getCounterNames(), getCounterValues());
+        }
+        if (match == PET_SLOW_QUERIES)
+        {
+            return mQueryLog.toCursor();
+        }
+
+        // SQLite only runs a query once its cursor is first read. Sampled queries are run right
+        // away by the query log, so their latency covers running them. The others are left to
+        // whoever reads them, and are only counted.
+        boolean sampled = mQueryLog.shouldSample();
+        long start = PetMetrics.now();
+        int rows = 0;
+        boolean failed = true;
+        try
+        {
+            Cursor cursor = queryPets(match, uri, projection, selection, selectionArgs, sortOrder,
+                    sampled, cancellationSignal);
+            if (sampled)
+            {
+                rows = cursor.getCount();
+            }
+            failed = false;
+            return cursor;
+        }
+        finally
+        {
+            if (sampled)
+            {
+                mMetrics.record(PetMetrics.OP_QUERY, match, start, rows, failed);
+            }
+            else
+            {
+                mMetrics.recordUntimed(PetMetrics.OP_QUERY, match, failed);
+            }
+        }
+    }
+
+    /**
+     * Perform the query for the given URI match, like {@link #query(Uri, String[], String, String[], String)}.
+     * Sampled queries are timed in the {@link PetQueryLog}.
+     */
+    private Cursor queryPets(int match, Uri uri, String[] projection, String selection,
+                             String[] selectionArgs, String sortOrder, boolean sampled,
+                             CancellationSignal cancellationSignal)
     {
         // Get readable database
         SQLiteDatabase db = mDbHelper.getReadableDatabase();
@@ -59,18 +207,52 @@ public class PetProvider extends ContentProvider
         // Make cursor for holding data
         Cursor cursor;
 
-        // Get the Uri match
-        int match = sUriMatcher.match(uri);
-
         // Determine what to do with the Uri
         switch (match)
         {
             case PETS:
-                // Perform query to get all the rows from the database for our Cursor
-                cursor = db.query(PetEntry.TABLE_NAME,
-                        projection, selection, selectionArgs, null, null, sortOrder);
+                // For a keyset page, only select the rows after the given keys,
+                // in the order the keys are for
+                String afterId = uri.getQueryParameter(PetContract.QUERY_PARAMETER_AFTER_ID);
+                if (afterId != null)
+                {
+                    String afterName = uri.getQueryParameter(PetContract.QUERY_PARAMETER_AFTER_NAME);
+                    if (uri.getQueryParameter(PetContract.QUERY_PARAMETER_OFFSET) != null)
+                    {
+                        throw new IllegalArgumentException("Keyset page cannot have an offset " + uri);
+                    }
+
+                    try
+                    {
+                        afterId = String.valueOf(Long.parseLong(afterId));
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        throw new IllegalArgumentException("Invalid page " + uri, e);
+                    }
+
+                    KeysetSelection keys = buildKeysetSelection(afterName, afterId);
+                    selection = TextUtils.isEmpty(selection) ?
+                            keys.selection : "(" + selection + ") AND " + keys.selection;
+                    selectionArgs = appendArgs(selectionArgs, keys.selectionArgs);
+                    sortOrder = keys.sortOrder;
+                }
+
+                // Perform query to get the rows from the database for our Cursor,
+                // limited to a single page if the Uri asks for one
+                cursor = queryTable(db, projection, selection, selectionArgs, sortOrder,
+                        buildLimit(uri), sampled, cancellationSignal);
                 break;
             case PET_ID:
+                // Serve the pet from the cache, or read it into the cache,
+                // if only the columns of the pet are asked for
+                if (PetCache.canServe(projection))
+                {
+                    Pet pet = readPet(db, ContentUris.parseId(uri), sampled, cancellationSignal);
+                    cursor = PetCache.toCursor(pet, projection);
+                    break;
+                }
+
                 // Setup the selection
                 selection = PetEntry._ID + "=?";
 
@@ -78,7 +260,12 @@ public class PetProvider extends ContentProvider
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
 
                 // Make the query with the given pet id
-                cursor = db.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                cursor = queryTable(db, projection, selection, selectionArgs, sortOrder, null,
+                        sampled, cancellationSignal);
+                break;
+            case PET_SEARCH:
+                cursor = search(db, uri, projection, selection, selectionArgs, sortOrder,
+                        sampled, cancellationSignal);
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
@@ -86,12 +273,237 @@ public class PetProvider extends ContentProvider
 
         // Set notification URI on the Cursor
         // so that we know what Content URI the Cursor was created for.
-        // If the data at this URI changes, then we know we need to update the Cursor
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        // If the data at this URI changes, then we know we need to update the Cursor.
+        // Any pet can start or stop matching a search, so search results watch all of the
+        // pets, the notifications of single pets/# URIs reach them as descendants.
+        cursor.setNotificationUri(getContext().getContentResolver(),
+                match == PET_SEARCH ? PetEntry.CONTENT_URI : uri);
 
         return cursor;
     }
 
+    /**
+     * Selection of the rows of a keyset page, with its arguments and the sort order it is for.
+     */
+    static final class KeysetSelection
+    {
+        final String selection;
+        final String[] selectionArgs;
+        final String sortOrder;
+
+        KeysetSelection(String selection, String[] selectionArgs, String sortOrder)
+        {
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            this.sortOrder = sortOrder;
+        }
+    }
+
+    /**
+     * Returns the selection of the rows after the given keys. Without a name the rows are in
+     * {@link PetEntry#SORT_ORDER_ID}, otherwise in {@link PetEntry#SORT_ORDER_NAME}.
+     * The lower bound on the name is a term of its own, outside of the OR that breaks the ties
+     * by ID, so SQLite seeks to it in the name index instead of scanning the index up to it.
+     */
+    static KeysetSelection buildKeysetSelection(String afterName, String afterId)
+    {
+        if (afterName == null)
+        {
+            return new KeysetSelection(PetEntry._ID + ">?", new String[] { afterId },
+                    PetEntry.SORT_ORDER_ID);
+        }
+        return new KeysetSelection(
+                PetEntry.COLUMN_PET_NAME + " COLLATE NOCASE>=? AND (" +
+                        PetEntry.COLUMN_PET_NAME + " COLLATE NOCASE>? OR " + PetEntry._ID + ">?)",
+                new String[] { afterName, afterName, afterId },
+                PetEntry.SORT_ORDER_NAME);
+    }
+
+    /**
+     * Returns the pet with the given ID from the cache, or reads it from the database and puts
+     * it in the cache. Returns null if there is no pet with the ID.
+     */
+    private Pet readPet(SQLiteDatabase db, long id, boolean sampled,
+                        CancellationSignal cancellationSignal)
+    {
+        Pet pet = mPetCache.get(id);
+        if (pet != null)
+        {
+            return pet;
+        }
+
+        long generation = mPetCache.getGeneration();
+        Cursor cursor = queryTable(db, PetCache.COLUMNS, PetEntry._ID + "=?",
+                new String[] { String.valueOf(id) }, null, null, sampled, cancellationSignal);
+        try
+        {
+            if (!cursor.moveToFirst())
+            {
+                return null;
+            }
+            pet = new Pet(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                    cursor.getInt(3), cursor.getInt(4));
+        }
+        finally
+        {
+            cursor.close();
+        }
+
+        mPetCache.put(pet, generation);
+        return pet;
+    }
+
+    /**
+     * Searches the full-text index for the pets matching the last path segment of the Uri.
+     * Without a sort order the pets are ranked by where they matched, then sorted by name.
+     * Sampled searches are timed in the {@link PetQueryLog}.
+     */
+    private Cursor search(SQLiteDatabase db, Uri uri, String[] projection, String selection,
+                                 String[] selectionArgs, String sortOrder, boolean sampled,
+                                 CancellationSignal cancellationSignal)
+    {
+        // Turn every word of the query into a prefix term, once for the name column only
+        // and once for all columns
+        StringBuilder nameMatch = new StringBuilder();
+        StringBuilder anyMatch = new StringBuilder();
+        for (String word : uri.getLastPathSegment().split("[^\\p{L}\\p{N}]+"))
+        {
+            if (word.isEmpty())
+            {
+                continue;
+            }
+            // Lower case, so words like OR are not read as operators
+            word = word.toLowerCase(Locale.ROOT);
+            nameMatch.append(PetEntry.COLUMN_PET_NAME).append(':').append(word).append("* ");
+            anyMatch.append(word).append("* ");
+        }
+
+        // Nothing to search for, so nothing matches
+        if (anyMatch.length() == 0)
+        {
+            return db.query(PetEntry.TABLE_NAME, projection, "0", null, null, null, null);
+        }
+
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+        builder.setTables(SEARCH_TABLES);
+
+        // The arguments of the joined match come before the ones of the selection
+        String[] args = appendArgs(new String[] { nameMatch.toString(), anyMatch.toString() },
+                selectionArgs == null ? new String[0] : selectionArgs);
+
+        if (sortOrder == null)
+        {
+            sortOrder = SEARCH_SORT_ORDER;
+        }
+
+        String limit = buildLimit(uri);
+        long start = sampled ? PetMetrics.now() : 0;
+
+        // Queries only take a cancellation signal from Jelly Bean on
+        Cursor cursor;
+        if (cancellationSignal != null &&
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+        {
+            cursor = builder.query(db, projection, selection, args, null, null, sortOrder, limit,
+                    cancellationSignal);
+        }
+        else
+        {
+            cursor = builder.query(db, projection, selection, args, null, null, sortOrder, limit);
+        }
+
+        if (sampled)
+        {
+            mQueryLog.record(db, cursor, start, PetContract.PATH_SEARCH, selection, sortOrder,
+                    builder.buildQuery(projection, selection, null, null, sortOrder, limit), args);
+        }
+        return cursor;
+    }
+
+    /**
+     * Query the pets table, passing the cancellation signal on to SQLite if there is one and
+     * the platform supports it.
+     * Sampled queries are timed in the {@link PetQueryLog}.
+     */
+    private Cursor queryTable(SQLiteDatabase db, String[] projection, String selection,
+                              String[] selectionArgs, String sortOrder, String limit,
+                              boolean sampled, CancellationSignal cancellationSignal)
+    {
+        long start = sampled ? PetMetrics.now() : 0;
+
+        // Queries only take a cancellation signal from Jelly Bean on
+        Cursor cursor;
+        if (cancellationSignal != null &&
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+        {
+            cursor = db.query(false, PetEntry.TABLE_NAME, projection, selection, selectionArgs,
+                    null, null, sortOrder, limit, cancellationSignal);
+        }
+        else
+        {
+            cursor = db.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs,
+                    null, null, sortOrder, limit);
+        }
+
+        if (sampled)
+        {
+            mQueryLog.record(db, cursor, start, PetEntry.TABLE_NAME, selection, sortOrder,
+                    SQLiteQueryBuilder.buildQueryString(false, PetEntry.TABLE_NAME, projection,
+                            selection, null, null, sortOrder, limit), selectionArgs);
+        }
+        return cursor;
+    }
+
+    /**
+     * Returns the selection arguments with the extra arguments added to the end.
+     */
+    private static String[] appendArgs(String[] selectionArgs, String[] extraArgs)
+    {
+        if (selectionArgs == null || selectionArgs.length == 0)
+        {
+            return extraArgs;
+        }
+
+        String[] args = new String[selectionArgs.length + extraArgs.length];
+        System.arraycopy(selectionArgs, 0, args, 0, selectionArgs.length);
+        System.arraycopy(extraArgs, 0, args, selectionArgs.length, extraArgs.length);
+        return args;
+    }
+
+    /**
+     * Builds the LIMIT clause from the paging query parameters of the Uri, or returns null
+     * if the Uri does not ask for a page.
+     */
+    private static String buildLimit(Uri uri)
+    {
+        String limit = uri.getQueryParameter(PetContract.QUERY_PARAMETER_LIMIT);
+        String offset = uri.getQueryParameter(PetContract.QUERY_PARAMETER_OFFSET);
+
+        if (limit == null)
+        {
+            if (offset != null)
+            {
+                throw new IllegalArgumentException("Offset requires a limit " + uri);
+            }
+            return null;
+        }
+
+        try
+        {
+            int limitValue = Integer.parseInt(limit);
+            int offsetValue = offset == null ? 0 : Integer.parseInt(offset);
+            if (limitValue < 0 || offsetValue < 0)
+            {
+                throw new IllegalArgumentException("Invalid page " + uri);
+            }
+            return offsetValue + "," + limitValue;
+        }
+        catch (NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Invalid page " + uri, e);
+        }
+    }
+
     /**
      * Insert new data into the provider with the given ContentValues.
      */
@@ -99,12 +511,25 @@ public class PetProvider extends ContentProvider
     public Uri insert(Uri uri, ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
 
-        switch (match)
+        long start = PetMetrics.now();
+        Uri newUri = null;
+        boolean failed = true;
+        try
         {
-            case PETS:
-                return insertPet(uri, contentValues);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            switch (match)
+            {
+                case PETS:
+                    newUri = insertPet(uri, contentValues);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Insertion is not supported for " + uri);
+            }
+            failed = false;
+            return newUri;
+        }
+        finally
+        {
+            mMetrics.record(PetMetrics.OP_INSERT, match, start, newUri == null ? 0 : 1, failed);
         }
     }
 
@@ -122,28 +547,193 @@ public class PetProvider extends ContentProvider
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
 
         // Get the id of the entry
-        long id = db.insert(PetEntry.TABLE_NAME, null, values);
+        long id = insertRow(db, values);
 
         // Insert data into table
         if(id == -1)
         {
-            Log.v("INSERTING PET INFO", "Unable to insert " + values.get(PetEntry.COLUMN_PET_NAME).toString());
+            if (PetLog.V) PetLog.v(LOG_TAG, "Unable to insert " +
+                    values.getAsString(PetEntry.COLUMN_PET_NAME));
             return null;
         }
-        else
-        {
-            Log.v("CatalogActivity", "New row ID: " + id);
-        }
+        if (PetLog.V) PetLog.v(LOG_TAG, "New row ID: " + id);
 
-        // Notify all Listeners that the data has changed for the pet content URI
-        // uri: content://com.example.android.pets/pets
-        getContext().getContentResolver().notifyChange(uri, null);
+        // Notify the Listeners of the new pet, Listeners of the whole pet content URI
+        // get notified as well
+        // uri: content://com.example.android.pets/pets/#
+        notifyChange(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id));
 
         // Once we know the ID of the new row in the table,
         // return the new URI with the ID appended to the end of it
         return ContentUris.withAppendedId(uri, id);
     }
 
+    /**
+     * Insert all of the given pets in a single transaction. The insert statement is compiled
+     * once and reused for every row, and listeners are notified once at the end instead of
+     * once per row. Returns the number of rows that were inserted.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values)
+    {
+        final int match = sUriMatcher.match(uri);
+
+        long start = PetMetrics.now();
+        int rowsInserted = 0;
+        boolean failed = true;
+        try
+        {
+            rowsInserted = bulkInsertPets(match, uri, values);
+            failed = false;
+            return rowsInserted;
+        }
+        finally
+        {
+            mMetrics.record(PetMetrics.OP_BULK_INSERT, match, start, rowsInserted, failed);
+        }
+    }
+
+    /**
+     * Insert all of the given pets for the given URI match, like {@link #bulkInsert(Uri, ContentValues[])}.
+     */
+    private int bulkInsertPets(int match, Uri uri, ContentValues[] values)
+    {
+        if (match != PETS)
+        {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+
+        // Get the writable database
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        int rowsInserted = 0;
+
+        db.beginTransaction();
+        try
+        {
+            for (ContentValues petValues : values)
+            {
+                // Invalid data aborts the whole batch, nothing gets committed
+                dataValidation(petValues);
+
+                // Rows rejected by the table constraints are skipped, the same way
+                // a single insert returns -1 for them
+                if (insertRow(db, petValues) != -1)
+                {
+                    rowsInserted++;
+                }
+            }
+            db.setTransactionSuccessful();
+        }
+        finally
+        {
+            db.endTransaction();
+        }
+
+        // One notification for the whole batch
+        if (rowsInserted > 0)
+        {
+            notifyChange(PetEntry.CONTENT_URI);
+        }
+
+        return rowsInserted;
+    }
+
+    /**
+     * Inserts a row through the cached insert statement, or through the database if the values
+     * hold more than the pet columns. Returns the ID of the new row, or -1 if it was rejected.
+     */
+    private long insertRow(SQLiteDatabase db, ContentValues values)
+    {
+        if (PetStatementCache.canWrite(values))
+        {
+            return mStatements.get().insert(values);
+        }
+        return db.insert(PetEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * Apply all of the operations in a single transaction. Either every operation is committed
+     * or none of them are, and listeners are notified once after the commit.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException
+    {
+        // A batch has no URI of its own, it is recorded as an unknown URI
+        long start = PetMetrics.now();
+        boolean failed = true;
+        try
+        {
+            ContentProviderResult[] results = applyBatchInTransaction(operations);
+            failed = false;
+            return results;
+        }
+        finally
+        {
+            mMetrics.record(PetMetrics.OP_APPLY_BATCH, UriMatcher.NO_MATCH, start,
+                    operations.size(), failed);
+        }
+    }
+
+    /**
+     * Apply all of the operations in a single transaction, like {@link #applyBatch(ArrayList)}.
+     */
+    private ContentProviderResult[] applyBatchInTransaction(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException
+    {
+        // Get the writable database
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        ContentProviderResult[] results;
+        Set<Uri> changedUris = new LinkedHashSet<Uri>();
+
+        mBatchNotifications.set(changedUris);
+        db.beginTransaction();
+        try
+        {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        }
+        finally
+        {
+            db.endTransaction();
+            mBatchNotifications.remove();
+        }
+
+        // The operations invalidated the cache before their changes were committed,
+        // so a read in between could have cached a pet as it was before the batch
+        if (!operations.isEmpty())
+        {
+            mPetCache.invalidateAll();
+        }
+
+        // Notify every changed URI once the batch is committed
+        for (Uri changedUri : changedUris)
+        {
+            notifyChange(changedUri);
+        }
+
+        return results;
+    }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed. Inside of
+     * {@link #applyBatch(ArrayList)} the URI is held back until the batch is committed.
+     * The notifications are merged by the {@link PetChangeNotifier}, so a burst of writes
+     * only wakes up every listener once.
+     */
+    private void notifyChange(Uri uri)
+    {
+        Set<Uri> batch = mBatchNotifications.get();
+        if (batch != null)
+        {
+            batch.add(uri);
+            return;
+        }
+        mChangeNotifier.notifyChange(uri);
+    }
+
     /**
      * Updates the data at the given selection and selection arguments, with the new ContentValues.
      */
@@ -152,27 +742,38 @@ public class PetProvider extends ContentProvider
     {
         final int match = sUriMatcher.match(uri);
 
-        switch (match)
+        long start = PetMetrics.now();
+        int rowsUpdated = 0;
+        boolean failed = true;
+        try
         {
-            case PETS:
-                return updatePet(uri, contentValues, selection, selectionArgs);
-            case PET_ID:
-
-                // Get the selection and selection args from the URI
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return updatePet(uri, contentValues, selection, selectionArgs);
-            default:
-                throw new IllegalArgumentException("Update is not supported for " + uri);
+            switch (match)
+            {
+                case PETS:
+                    rowsUpdated = updatePet(PetEntry.CONTENT_URI, contentValues, selection, selectionArgs);
+                    break;
+                case PET_ID:
+                    rowsUpdated = updatePetById(ContentUris.parseId(uri), contentValues);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Update is not supported for " + uri);
+            }
+            failed = false;
+            return rowsUpdated;
+        }
+        finally
+        {
+            mMetrics.record(PetMetrics.OP_UPDATE, match, start, rowsUpdated, failed);
         }
     }
 
     /**
      * Update pets in the database with the given content values. Apply the changes to the rows
      * specified in the selection and selection arguments (which could be 0 or 1 or more pets).
+     * Listeners of the given URI are notified if any rows changed.
      * Return the number of rows that were successfully updated.
      */
-    private int updatePet(Uri uri, ContentValues values, String selection, String[] selectionArgs)
+    private int updatePet(Uri notifyUri, ContentValues values, String selection, String[] selectionArgs)
     {
 
         // Check size of values
@@ -183,48 +784,63 @@ public class PetProvider extends ContentProvider
 
         dataValidation(values);
 
-        // Notify all Listeners that the data has changed for the pet content URI
-        // uri: content://com.example.android.pets/pets
-        getContext().getContentResolver().notifyChange(uri, null);
-
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
         // Update the selected pets in the pets database table with the given ContentValues
         int numberOfRows = db.update(PetEntry.TABLE_NAME, values, selection, selectionArgs);
 
+        // Notify the Listeners only once the pets actually changed
+        if (numberOfRows > 0)
+        {
+            mPetCache.invalidateAll();
+            notifyChange(notifyUri);
+        }
+
         return numberOfRows;
     }
 
-    private void dataValidation(ContentValues values)
+    /**
+     * Update the pet with the given ID, through the cached update statement when the values
+     * only hold pet columns. Return the number of rows that were successfully updated.
+     */
+    private int updatePetById(long id, ContentValues values)
     {
-        // If the {@link PetEntry#COLUMN_PET_NAME} key is present,
-        // check that the name value is not null.
-        if (values.containsKey(PetEntry.COLUMN_PET_NAME)) {
-            String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
-            if (name == null) {
-                throw new IllegalArgumentException("Pet requires a name");
-            }
+        if (!PetStatementCache.canWrite(values))
+        {
+            // Get the selection and selection args from the ID
+            String selection = PetEntry._ID + "=?";
+            String[] selectionArgs = new String[] { String.valueOf(id) };
+            return updatePet(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id),
+                    values, selection, selectionArgs);
         }
 
-        // If the {@link PetEntry#COLUMN_PET_GENDER} key is present,
-        // check that the gender value is valid.
-        if (values.containsKey(PetEntry.COLUMN_PET_GENDER)) {
-            Integer gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
-            if (gender == null || !PetEntry.isValidGender(gender)) {
-                throw new IllegalArgumentException("Pet requires valid gender");
-            }
+        // Check size of values
+        if(values.size() == 0)
+        {
+            return 0;
         }
 
-        // If the {@link PetEntry#COLUMN_PET_WEIGHT} key is present,
-        // check that the weight value is valid.
-        if (values.containsKey(PetEntry.COLUMN_PET_WEIGHT)) {
-            // Check that the weight is greater than or equal to 0 kg
-            Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
-            if (weight != null && weight < 0) {
-                throw new IllegalArgumentException("Pet requires valid weight");
-            }
+        dataValidation(values);
+
+        // Make sure the database is open before the statements get compiled for it
+        mDbHelper.getWritableDatabase();
+        int numberOfRows = mStatements.get().updateById(id, values);
+
+        // Notify the Listeners only once the pet actually changed
+        if (numberOfRows > 0)
+        {
+            mPetCache.invalidate(id);
+            notifyChange(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id));
         }
 
-        // No need to check the breed, any value is valid (including null).
+        return numberOfRows;
+    }
+
+    private void dataValidation(ContentValues values)
+    {
+        String error = PetValidator.validate(values);
+        if (error != null) {
+            throw new IllegalArgumentException(error);
+        }
     }
 
     /**
@@ -233,30 +849,264 @@ public class PetProvider extends ContentProvider
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs)
     {
+        // Get the match for the URI
+        final int match = sUriMatcher.match(uri);
+
+        long start = PetMetrics.now();
+        int rowsDeleted = 0;
+        boolean failed = true;
+        try
+        {
+            rowsDeleted = deletePets(match, uri, selection, selectionArgs);
+            failed = false;
+            return rowsDeleted;
+        }
+        finally
+        {
+            mMetrics.record(PetMetrics.OP_DELETE, match, start, rowsDeleted, failed);
+        }
+    }
 
+    /**
+     * Delete the pets for the given URI match, like {@link #delete(Uri, String, String[])}.
+     */
+    private int deletePets(int match, Uri uri, String selection, String[] selectionArgs)
+    {
         // Get the writable database
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
 
-        // Notify all Listeners that the data has changed for the pet content URI
-        // uri: content://com.example.android.pets/pets
-        getContext().getContentResolver().notifyChange(uri, null);
-
-        // Get the match for the URI
-        final int match = sUriMatcher.match(uri);
+        // URI to notify the Listeners of, the single pet when only one gets deleted
+        Uri notifyUri;
+        int numberOfRows;
 
         switch (match)
         {
             case PETS:
-                return db.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                notifyUri = PetEntry.CONTENT_URI;
+                if (selection == null)
+                {
+                    // Deleting all of the pets truncates the table instead of deleting row by row
+                    numberOfRows = PetDbHelper.truncate(db);
+                }
+                else
+                {
+                    numberOfRows = db.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                }
+                if (numberOfRows > 0)
+                {
+                    mPetCache.invalidateAll();
+                }
+                break;
             case PET_ID:
 
-                // Get the selection and selection args from the URI
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return db.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
+                // Delete the pet by its ID through the cached delete statement
+                long id = ContentUris.parseId(uri);
+                notifyUri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, id);
+                numberOfRows = mStatements.get().deleteById(id);
+                if (numberOfRows > 0)
+                {
+                    mPetCache.invalidate(id);
+                }
+                break;
             default:
                 throw new IllegalArgumentException("Delete is not supported for " + uri);
         }
+
+        // Notify the Listeners only once the pets actually changed
+        if (numberOfRows > 0)
+        {
+            notifyChange(notifyUri);
+        }
+
+        return numberOfRows;
+    }
+
+    /**
+     * Runs the provider methods of the {@link PetContract}, on the calling thread.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras)
+    {
+        if (PetContract.METHOD_MAINTAIN.equals(method))
+        {
+            long reclaimedBytes = PetDbMaintenance.run(mDbHelper.getWritableDatabase(),
+                    PetDbMaintenance.DEFAULT_FRAGMENTATION_THRESHOLD);
+
+            Bundle result = new Bundle();
+            result.putLong(PetContract.KEY_RECLAIMED_BYTES, reclaimedBytes);
+            return result;
+        }
+        if (PetContract.METHOD_RESTORE_SNAPSHOT.equals(method))
+        {
+            ParcelFileDescriptor snapshot = extras == null ? null :
+                    (ParcelFileDescriptor) extras.getParcelable(PetContract.KEY_SNAPSHOT);
+            if (snapshot == null)
+            {
+                throw new IllegalArgumentException("Restore needs a snapshot file descriptor");
+            }
+
+            Bundle result = new Bundle();
+            result.putInt(PetContract.KEY_RESTORED_ROWS, restoreSnapshot(snapshot));
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Opens the export of all the pets for reading. The pets are written into a pipe on a
+     * background thread while the caller reads them out of it, so the export is never held in
+     * memory as a whole.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException
+    {
+        // Get the match for the URI
+        final int match = sUriMatcher.match(uri);
+
+        switch (match)
+        {
+            case PET_EXPORT:
+                if (!"r".equals(mode))
+                {
+                    throw new FileNotFoundException("Export can only be read: " + uri);
+                }
+                String format = getExportFormat(uri);
+                if (!PetExporter.isSupportedFormat(format))
+                {
+                    throw new FileNotFoundException("Export format is not supported: " + format);
+                }
+                return openPipeHelper(uri, PetExporter.getMimeType(format), null, format,
+                        new PipeDataWriter<String>()
+                {
+                    @Override
+                    public void writeDataToPipe(ParcelFileDescriptor output, Uri exportUri,
+                                                String mimeType, Bundle opts, String exportFormat)
+                    {
+                        // The pipe is closed once this returns
+                        FileOutputStream out = new FileOutputStream(output.getFileDescriptor());
+                        try
+                        {
+                            PetExporter.export(mDbHelper.getReadableDatabase(), exportFormat, out);
+                        }
+                        catch (IOException e)
+                        {
+                            // Most likely the reader closed the pipe before reading all of it
+                            if (PetLog.W) PetLog.w(LOG_TAG, "Export was not read to the end", e);
+                        }
+                    }
+                });
+            case PET_SNAPSHOT:
+                if (!"r".equals(mode))
+                {
+                    throw new FileNotFoundException("Snapshot can only be read: " + uri);
+                }
+                return openPipeHelper(uri, PetContract.MIME_TYPE_SNAPSHOT, null, null,
+                        new PipeDataWriter<Object>()
+                {
+                    @Override
+                    public void writeDataToPipe(ParcelFileDescriptor output, Uri snapshotUri,
+                                                String mimeType, Bundle opts, Object args)
+                    {
+                        // The pipe is closed once this returns
+                        FileOutputStream out = new FileOutputStream(output.getFileDescriptor());
+                        try
+                        {
+                            PetSnapshot.write(mDbHelper.getReadableDatabase(), out);
+                        }
+                        catch (IOException e)
+                        {
+                            // Most likely the reader closed the pipe before reading all of it
+                            if (PetLog.W) PetLog.w(LOG_TAG, "Snapshot was not read to the end", e);
+                        }
+                    }
+                });
+            default:
+                throw new FileNotFoundException("No file for " + uri);
+        }
+    }
+
+    /**
+     * Returns the format the export URI asks for, CSV if it does not ask for one.
+     */
+    private static String getExportFormat(Uri uri)
+    {
+        String format = uri.getQueryParameter(PetContract.QUERY_PARAMETER_FORMAT);
+        return format == null ? PetContract.FORMAT_CSV : format;
+    }
+
+    /**
+     * Replaces all of the pets with the pets of the snapshot, and closes the snapshot.
+     * Returns the number of pets that were restored.
+     */
+    private int restoreSnapshot(ParcelFileDescriptor snapshot)
+    {
+        InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(snapshot);
+        int restored;
+        try
+        {
+            restored = PetSnapshot.restore(mDbHelper.getWritableDatabase(), in);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalArgumentException("Unable to restore the snapshot", e);
+        }
+        catch (SQLException e)
+        {
+            throw new IllegalArgumentException("Unable to restore the snapshot", e);
+        }
+        finally
+        {
+            try
+            {
+                in.close();
+            }
+            catch (IOException ignored)
+            {
+            }
+        }
+
+        // Every pet may have changed
+        mPetCache.invalidateAll();
+        notifyChange(PetEntry.CONTENT_URI);
+        return restored;
+    }
+
+    /**
+     * Writes the metrics of the provider, like for adb shell dumpsys activity provider.
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args)
+    {
+        mMetrics.dump(writer, getCounterNames(), getCounterValues());
+    }
+
+    /**
+     * Returns the names of the counters of the cache, the notifications and the write-behind
+     * queue, in the order of {@link #getCounterValues()}.
+     */
+    private static String[] getCounterNames()
+    {
+        return new String[] {
+                "cache.hits", "cache.misses", "cache.evictions", "cache.size_bytes",
+                "notifications.received", "notifications.dispatched",
+                "write_behind.flushes", "write_behind.flushed_writes",
+                "write_behind.largest_batch", "write_behind.flush_time_ms",
+                "write_behind.slowest_flush_ms"
+        };
+    }
+
+    private long[] getCounterValues()
+    {
+        // The queue lives in the process of the app, the same one as the provider
+        PetWriteBehindQueue queue = PetWriteBehindQueue.getInstance(getContext());
+        return new long[] {
+                mPetCache.hitCount(), mPetCache.missCount(), mPetCache.evictionCount(),
+                mPetCache.sizeBytes(),
+                mChangeNotifier.getReceivedCount(), mChangeNotifier.getDispatchedCount(),
+                queue.getFlushCount(), queue.getFlushedEntryCount(),
+                queue.getLargestBatchSize(), queue.getTotalFlushTimeMs(),
+                queue.getSlowestFlushTimeMs()
+        };
     }
 
     /**
@@ -271,9 +1121,18 @@ public class PetProvider extends ContentProvider
         switch (match)
         {
             case PETS:
+            case PET_SEARCH:
                 return PetEntry.CONTENT_LIST_TYPE;
             case PET_ID:
                 return PetEntry.CONTENT_ITEM_TYPE;
+            case PET_EXPORT:
+                return PetExporter.getMimeType(getExportFormat(uri));
+            case PET_SNAPSHOT:
+                return PetContract.MIME_TYPE_SNAPSHOT;
+            case PET_METRICS:
+                return PetContract.MetricsEntry.CONTENT_LIST_TYPE;
+            case PET_SLOW_QUERIES:
+                return PetContract.SlowQueryEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
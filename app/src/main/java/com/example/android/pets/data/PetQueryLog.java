@@ -0,0 +1,254 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+import com.example.android.pets.data.PetContract.SlowQueryEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Samples how long the queries of the provider take, by the shape of their selection and sort
+ * order, so it shows which queries are slow and which indexes they miss. The shape of a query
+ * is its selection and sort order with the literals replaced by ?, so the same query with
+ * different values is counted together.
+ *
+ * Only every {@link #SAMPLE_RATE}th query is timed. A sampled query is run right away by
+ * reading its count, so its time covers running it in SQLite and not just preparing it. The
+ * first time a shape takes longer than {@link #SLOW_QUERY_NANOS}, its EXPLAIN QUERY PLAN is
+ * captured. Only the {@link #MAX_SHAPES} shapes with the slowest single samples are kept, so a
+ * rare but slow query stays in the table however many faster shapes come after it.
+ */
+final class PetQueryLog
+{
+    // One in this many queries is timed
+    static final int SAMPLE_RATE = 8;
+
+    // Queries slower than this get their query plan captured
+    static final long SLOW_QUERY_NANOS = 16 * 1000 * 1000;
+
+    // Number of shapes kept, and number of the slowest ones that are reported
+    private static final int MAX_SHAPES = 64;
+    static final int TOP_N = 20;
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern ARGUMENT_LIST = Pattern.compile("\\?(?:\\s*,\\s*\\?)+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final AtomicLong mQueryCount = new AtomicLong();
+
+    // Slowest first, by the slowest single sample of the shapes
+    private static final Comparator<Shape> SLOWEST_FIRST = new Comparator<Shape>()
+    {
+        @Override
+        public int compare(Shape first, Shape second)
+        {
+            return first.maxNanos < second.maxNanos ? 1 :
+                    first.maxNanos > second.maxNanos ? -1 : 0;
+        }
+    };
+
+    // Shapes by their text, guarded by itself
+    private final Map<String, Shape> mShapes = new HashMap<String, Shape>();
+
+    // The same shapes, fastest first, to find the one to evict once there are too many.
+    // Guarded by mShapes.
+    private final PriorityQueue<Shape> mFastestShapes =
+            new PriorityQueue<Shape>(MAX_SHAPES + 1, Collections.reverseOrder(SLOWEST_FIRST));
+
+    /**
+     * Timings of all the sampled queries with the same shape.
+     */
+    private static class Shape
+    {
+        final String text;
+        long samples;
+        long slowSamples;
+        long totalNanos;
+        long maxNanos;
+        String plan;
+
+        Shape(String text)
+        {
+            this.text = text;
+        }
+    }
+
+    /**
+     * Returns whether or not the query that is about to run should be timed.
+     */
+    boolean shouldSample()
+    {
+        return mQueryCount.getAndIncrement() % SAMPLE_RATE == 0;
+    }
+
+    /**
+     * Runs the sampled query of the cursor by reading its count, and records how long it took
+     * since the given {@link PetMetrics#now()} time. The SQL and its arguments are only used to
+     * capture the query plan if the query was slow.
+     */
+    void record(SQLiteDatabase db, Cursor cursor, long startNanos, String source, String selection,
+                String sortOrder, String sql, String[] selectionArgs)
+    {
+        cursor.getCount();
+        long nanos = System.nanoTime() - startNanos;
+
+        String text = shapeOf(source, selection, sortOrder);
+        boolean capturePlan;
+        synchronized (mShapes)
+        {
+            Shape shape = mShapes.get(text);
+            if (shape == null)
+            {
+                // Once the table is full a new shape only gets in if it is slower than the
+                // fastest shape in it, which is evicted for it
+                if (mShapes.size() >= MAX_SHAPES)
+                {
+                    if (nanos <= mFastestShapes.peek().maxNanos)
+                    {
+                        return;
+                    }
+                    mShapes.remove(mFastestShapes.poll().text);
+                }
+                shape = new Shape(text);
+                shape.maxNanos = nanos;
+                mShapes.put(text, shape);
+                mFastestShapes.add(shape);
+            }
+            else if (nanos > shape.maxNanos)
+            {
+                // Put the shape back into the heap at its new place
+                mFastestShapes.remove(shape);
+                shape.maxNanos = nanos;
+                mFastestShapes.add(shape);
+            }
+            shape.samples++;
+            shape.totalNanos += nanos;
+
+            boolean slow = nanos >= SLOW_QUERY_NANOS;
+            if (slow)
+            {
+                shape.slowSamples++;
+            }
+            capturePlan = slow && shape.plan == null;
+        }
+
+        if (capturePlan)
+        {
+            String plan = explain(db, sql, selectionArgs);
+            synchronized (mShapes)
+            {
+                Shape shape = mShapes.get(text);
+                if (shape != null)
+                {
+                    shape.plan = plan;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the shape of a query on the source, its selection and sort order without any
+     * literals or extra whitespace.
+     */
+    static String shapeOf(String source, String selection, String sortOrder)
+    {
+        StringBuilder shape = new StringBuilder(source);
+        if (selection != null && !selection.isEmpty())
+        {
+            shape.append(" WHERE ").append(normalize(selection));
+        }
+        if (sortOrder != null && !sortOrder.isEmpty())
+        {
+            shape.append(" ORDER BY ").append(normalize(sortOrder));
+        }
+        return shape.toString();
+    }
+
+    private static String normalize(String sql)
+    {
+        String shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+        shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+        shape = ARGUMENT_LIST.matcher(shape).replaceAll("?, ...");
+        return WHITESPACE.matcher(shape).replaceAll(" ").trim();
+    }
+
+    /**
+     * Returns the EXPLAIN QUERY PLAN of the query, a line for every step.
+     */
+    private static String explain(SQLiteDatabase db, String sql, String[] selectionArgs)
+    {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = null;
+        try
+        {
+            cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+            int detail = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext())
+            {
+                if (plan.length() > 0)
+                {
+                    plan.append('\n');
+                }
+                plan.append(detail == -1 ? cursor.getString(cursor.getColumnCount() - 1) :
+                        cursor.getString(detail));
+            }
+        }
+        catch (SQLiteException e)
+        {
+            plan.append("Unable to explain: ").append(e.getMessage());
+        }
+        finally
+        {
+            if (cursor != null)
+            {
+                cursor.close();
+            }
+        }
+        return plan.toString();
+    }
+
+    /**
+     * Returns a cursor with the {@link SlowQueryEntry} columns, holding the {@link #TOP_N}
+     * shapes with the slowest single samples, slowest first.
+     */
+    Cursor toCursor()
+    {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        synchronized (mShapes)
+        {
+            List<Shape> shapes = new ArrayList<Shape>(mShapes.values());
+            Collections.sort(shapes, SLOWEST_FIRST);
+
+            for (Shape shape : shapes.subList(0, Math.min(TOP_N, shapes.size())))
+            {
+                rows.add(new Object[] {
+                        shape.text,
+                        shape.samples,
+                        shape.slowSamples,
+                        shape.totalNanos / shape.samples / 1000,
+                        shape.maxNanos / 1000,
+                        shape.plan
+                });
+            }
+        }
+
+        MatrixCursor cursor = new MatrixCursor(SlowQueryEntry.COLUMNS, rows.size());
+        for (Object[] row : rows)
+        {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes {@link Pet}s through the {@link PetProvider}, so callers do not have to
+ * build {@link ContentValues} or look up cursor columns themselves.
+ *
+ * Cursors are mapped to pets with the column indices resolved once per cursor, and the writes
+ * reuse the same {@link ContentValues} instead of allocating a map for every pet. Because of
+ * that a repository must only be used from one thread at a time, the {@link PetAsyncWriter}
+ * only uses its own from the writer thread.
+ */
+public class PetRepository
+{
+    // Number of pets sent to the provider in a single bulk insert
+    static final int INSERT_CHUNK_SIZE = 500;
+
+    /** All the columns of a pet, the projection to read pets with */
+    public static final String[] PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT
+    };
+
+    private final ContentResolver mResolver;
+
+    // Values of the single pet writes
+    private final ContentValues mValues = new ContentValues(4);
+
+    // Values of a chunk of a bulk insert, reused by every chunk. Every pet of a chunk needs
+    // values of its own, since the provider only reads them once the whole chunk is passed in.
+    private ContentValues[] mChunk;
+
+    public PetRepository(ContentResolver resolver)
+    {
+        mResolver = resolver;
+    }
+
+    /**
+     * Returns the pet with the given ID, or null if there is none.
+     */
+    public Pet getPet(long id)
+    {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id),
+                PROJECTION, null, null, null);
+        if (cursor == null)
+        {
+            return null;
+        }
+
+        try
+        {
+            return cursor.moveToFirst() ? readPet(cursor) : null;
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns all the pets at the URI that match the selection, in the sort order.
+     */
+    public List<Pet> getPets(Uri uri, String selection, String[] selectionArgs, String sortOrder)
+    {
+        Cursor cursor = mResolver.query(uri, PROJECTION, selection, selectionArgs, sortOrder);
+        if (cursor == null)
+        {
+            return new ArrayList<Pet>(0);
+        }
+
+        try
+        {
+            return readPets(cursor);
+        }
+        finally
+        {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads the pet the cursor is at. The cursor needs all the pet columns. To read more than
+     * one row of the same cursor, resolve its {@link ColumnIndices} once and pass them in.
+     */
+    public static Pet readPet(Cursor cursor)
+    {
+        return readPet(cursor, new ColumnIndices(cursor));
+    }
+
+    /**
+     * Reads the pet the cursor is at, from the columns resolved for that cursor.
+     */
+    public static Pet readPet(Cursor cursor, ColumnIndices columns)
+    {
+        return new Pet(cursor.getLong(columns.id),
+                cursor.getString(columns.name),
+                cursor.getString(columns.breed),
+                cursor.getInt(columns.gender),
+                cursor.getInt(columns.weight));
+    }
+
+    /**
+     * Reads all the pets of the cursor, resolving the column indices only once.
+     */
+    public static List<Pet> readPets(Cursor cursor)
+    {
+        ColumnIndices columns = new ColumnIndices(cursor);
+        List<Pet> pets = new ArrayList<Pet>(cursor.getCount());
+
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext())
+        {
+            pets.add(readPet(cursor, columns));
+        }
+        return pets;
+    }
+
+    /**
+     * Saves a new pet. Returns the content URI of the new pet, or null if it could not be saved.
+     */
+    public Uri insert(Pet pet)
+    {
+        return mResolver.insert(PetEntry.CONTENT_URI, toContentValues(pet, mValues));
+    }
+
+    /**
+     * Saves all of the new pets. Every chunk of pets goes in with a single bulk insert, so a
+     * single transaction and a single change notification. Returns the number of saved pets.
+     */
+    public int insert(List<Pet> pets)
+    {
+        int size = pets.size();
+        if (size == 0)
+        {
+            return 0;
+        }
+
+        if (mChunk == null)
+        {
+            mChunk = new ContentValues[INSERT_CHUNK_SIZE];
+            for (int i = 0; i < mChunk.length; i++)
+            {
+                mChunk[i] = new ContentValues(4);
+            }
+        }
+
+        int inserted = 0;
+        for (int start = 0; start < size; start += mChunk.length)
+        {
+            int count = Math.min(mChunk.length, size - start);
+
+            // The last chunk can be shorter, it still reuses the same values
+            ContentValues[] values = mChunk;
+            if (count < mChunk.length)
+            {
+                values = new ContentValues[count];
+                System.arraycopy(mChunk, 0, values, 0, count);
+            }
+
+            for (int i = 0; i < count; i++)
+            {
+                toContentValues(pets.get(start + i), values[i]);
+            }
+            inserted += mResolver.bulkInsert(PetEntry.CONTENT_URI, values);
+        }
+        return inserted;
+    }
+
+    /**
+     * Saves the changes to the pet with the given content URI.
+     * Returns the number of rows that were updated.
+     */
+    public int update(Uri petUri, Pet pet)
+    {
+        return mResolver.update(petUri, toContentValues(pet, mValues), null, null);
+    }
+
+    /**
+     * Deletes the pet with the given content URI. Returns the number of rows that were deleted.
+     */
+    public int delete(Uri petUri)
+    {
+        return mResolver.delete(petUri, null, null);
+    }
+
+    /**
+     * Writes the columns of the pet, except for its ID, into the values and returns them.
+     */
+    public static ContentValues toContentValues(Pet pet, ContentValues values)
+    {
+        values.clear();
+        values.put(PetEntry.COLUMN_PET_NAME, pet.getName());
+        values.put(PetEntry.COLUMN_PET_BREED, pet.getBreed());
+        values.put(PetEntry.COLUMN_PET_GENDER, pet.getGender());
+        values.put(PetEntry.COLUMN_PET_WEIGHT, pet.getWeight());
+        return values;
+    }
+
+    /**
+     * Indices of the pet columns in a cursor, resolved once for all of its rows.
+     */
+    public static final class ColumnIndices
+    {
+        final int id;
+        final int name;
+        final int breed;
+        final int gender;
+        final int weight;
+
+        public ColumnIndices(Cursor cursor)
+        {
+            id = cursor.getColumnIndexOrThrow(PetEntry._ID);
+            name = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME);
+            breed = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED);
+            gender = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_GENDER);
+            weight = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_WEIGHT);
+        }
+    }
+}
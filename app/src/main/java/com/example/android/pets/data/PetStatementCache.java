@@ -0,0 +1,231 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.SparseArray;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Compiled statements for the writes the provider makes most: inserting a pet, and updating
+ * or deleting a single pet by its ID. Every statement is compiled the first time it is used
+ * and then reused, binding the values straight from the {@link ContentValues} and the ID as
+ * a long, instead of building the SQL and the selection arguments on every write.
+ *
+ * A statement must not be used by two threads at once, so every thread that writes to the
+ * database gets its own cache.
+ */
+final class PetStatementCache
+{
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetStatementCache.class.getSimpleName();
+
+    // The columns the statements can bind, in the order of their bits in an update mask
+    private static final String[] COLUMNS = {
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT
+    };
+
+    private static final String SQL_INSERT_PET =
+            "INSERT INTO " + PetEntry.TABLE_NAME + " (" +
+                    PetEntry.COLUMN_PET_NAME + ", " +
+                    PetEntry.COLUMN_PET_BREED + ", " +
+                    PetEntry.COLUMN_PET_GENDER + ", " +
+                    PetEntry.COLUMN_PET_WEIGHT + ") VALUES (?, ?, ?, ?)";
+
+    private static final String SQL_DELETE_PET_BY_ID =
+            "DELETE FROM " + PetEntry.TABLE_NAME + " WHERE " + PetEntry._ID + "=?";
+
+    private final SQLiteDatabase mDb;
+
+    private SQLiteStatement mInsert;
+    private SQLiteStatement mDeleteById;
+
+    // Update statements by the mask of the columns they set
+    private final SparseArray<SQLiteStatement> mUpdateById = new SparseArray<SQLiteStatement>();
+
+    PetStatementCache(SQLiteDatabase db)
+    {
+        mDb = db;
+    }
+
+    /**
+     * Returns whether or not the values only hold pet columns, so the cached statements can
+     * write them. Values with other keys have to go through {@link SQLiteDatabase} instead.
+     */
+    static boolean canWrite(ContentValues values)
+    {
+        return columnMask(values) != -1;
+    }
+
+    /**
+     * Returns the mask of the pet columns in the values, or -1 if they hold any other key.
+     */
+    private static int columnMask(ContentValues values)
+    {
+        int mask = 0;
+        for (String key : values.keySet())
+        {
+            int column = indexOfColumn(key);
+            if (column == -1)
+            {
+                return -1;
+            }
+            mask |= 1 << column;
+        }
+        return mask;
+    }
+
+    private static int indexOfColumn(String key)
+    {
+        for (int i = 0; i < COLUMNS.length; i++)
+        {
+            if (COLUMNS[i].equals(key))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Inserts a pet, with the column default for a missing weight. Returns the ID of the new
+     * row, or -1 if the row broke a table constraint, like {@link SQLiteDatabase#insert} does.
+     */
+    long insert(ContentValues values)
+    {
+        if (mInsert == null)
+        {
+            mInsert = mDb.compileStatement(SQL_INSERT_PET);
+        }
+
+        mInsert.clearBindings();
+        bind(mInsert, 1, values.get(PetEntry.COLUMN_PET_NAME));
+        bind(mInsert, 2, values.get(PetEntry.COLUMN_PET_BREED));
+        bind(mInsert, 3, values.get(PetEntry.COLUMN_PET_GENDER));
+        if (values.containsKey(PetEntry.COLUMN_PET_WEIGHT))
+        {
+            bind(mInsert, 4, values.get(PetEntry.COLUMN_PET_WEIGHT));
+        }
+        else
+        {
+            mInsert.bindLong(4, 0);
+        }
+
+        try
+        {
+            return mInsert.executeInsert();
+        }
+        catch (SQLException e)
+        {
+            if (PetLog.V) PetLog.v(LOG_TAG, "Unable to insert " +
+                    values.getAsString(PetEntry.COLUMN_PET_NAME), e);
+            return -1;
+        }
+    }
+
+    /**
+     * Updates the columns in the values for the pet with the given ID.
+     * Returns the number of rows that were updated.
+     */
+    int updateById(long id, ContentValues values)
+    {
+        int mask = columnMask(values);
+
+        SQLiteStatement statement = mUpdateById.get(mask);
+        if (statement == null)
+        {
+            statement = mDb.compileStatement(buildUpdateById(mask));
+            mUpdateById.put(mask, statement);
+        }
+
+        statement.clearBindings();
+        int index = 1;
+        for (int i = 0; i < COLUMNS.length; i++)
+        {
+            if ((mask & (1 << i)) != 0)
+            {
+                bind(statement, index++, values.get(COLUMNS[i]));
+            }
+        }
+        statement.bindLong(index, id);
+
+        return statement.executeUpdateDelete();
+    }
+
+    /**
+     * Deletes the pet with the given ID. Returns the number of rows that were deleted.
+     */
+    int deleteById(long id)
+    {
+        if (mDeleteById == null)
+        {
+            mDeleteById = mDb.compileStatement(SQL_DELETE_PET_BY_ID);
+        }
+
+        mDeleteById.bindLong(1, id);
+        return mDeleteById.executeUpdateDelete();
+    }
+
+    /**
+     * Builds the update by ID that sets the columns in the mask.
+     */
+    private static String buildUpdateById(int mask)
+    {
+        StringBuilder sql = new StringBuilder("UPDATE " + PetEntry.TABLE_NAME + " SET ");
+        boolean first = true;
+        for (int i = 0; i < COLUMNS.length; i++)
+        {
+            if ((mask & (1 << i)) != 0)
+            {
+                if (!first)
+                {
+                    sql.append(", ");
+                }
+                sql.append(COLUMNS[i]).append("=?");
+                first = false;
+            }
+        }
+        return sql.append(" WHERE ").append(PetEntry._ID).append("=?").toString();
+    }
+
+    /**
+     * Binds a value from the {@link ContentValues} with the type it has, without converting
+     * it to a string first.
+     */
+    private static void bind(SQLiteStatement statement, int index, Object value)
+    {
+        if (value == null)
+        {
+            statement.bindNull(index);
+        }
+        else if (value instanceof String)
+        {
+            statement.bindString(index, (String) value);
+        }
+        else if (value instanceof Float || value instanceof Double)
+        {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        }
+        else if (value instanceof Number)
+        {
+            statement.bindLong(index, ((Number) value).longValue());
+        }
+        else if (value instanceof Boolean)
+        {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        }
+        else if (value instanceof byte[])
+        {
+            statement.bindBlob(index, (byte[]) value);
+        }
+        else
+        {
+            statement.bindString(index, value.toString());
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * The rules the values of a pet have to follow before they are written. The provider rejects
+ * writes that break them, and the {@link PetImporter} checks every row against them up front,
+ * so a single bad row does not fail the whole chunk it is inserted with.
+ */
+public final class PetValidator
+{
+    private PetValidator() {}
+
+    /**
+     * Checks the pet columns that are present in the values. Returns the reason the values are
+     * invalid, or null if they are valid.
+     */
+    public static String validate(ContentValues values)
+    {
+        // If the {@link PetEntry#COLUMN_PET_NAME} key is present,
+        // check that the name value is not null.
+        if (values.containsKey(PetEntry.COLUMN_PET_NAME)) {
+            String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
+            if (name == null) {
+                return "Pet requires a name";
+            }
+        }
+
+        // If the {@link PetEntry#COLUMN_PET_GENDER} key is present,
+        // check that the gender value is valid.
+        if (values.containsKey(PetEntry.COLUMN_PET_GENDER)) {
+            Integer gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
+            if (gender == null || !PetEntry.isValidGender(gender)) {
+                return "Pet requires valid gender";
+            }
+        }
+
+        // If the {@link PetEntry#COLUMN_PET_WEIGHT} key is present,
+        // check that the weight value is valid.
+        if (values.containsKey(PetEntry.COLUMN_PET_WEIGHT)) {
+            // Check that the weight is greater than or equal to 0 kg
+            Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+            if (weight != null && weight < 0) {
+                return "Pet requires valid weight";
+            }
+        }
+
+        // No need to check the breed, any value is valid (including null).
+        return null;
+    }
+}
@@ -0,0 +1,314 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind queue for saving pets. Inserts and updates are collected for a short window,
+ * or until enough of them are queued, and then written with a single
+ * {@link ContentResolver#applyBatch}, so a single transaction and a single fsync for the whole
+ * batch instead of one for every pet. The batches are written on the {@link PetAsyncWriter}
+ * thread, in order with all the other writes.
+ *
+ * Queued writes only live in memory, so {@link #flush()} has to be called whenever the app
+ * may be going away, like when an activity is paused.
+ */
+public class PetWriteBehindQueue
+{
+    /** Tag for the log messages */
+    private static final String LOG_TAG = PetWriteBehindQueue.class.getSimpleName();
+
+    // Longest a write waits in the queue before it is flushed
+    public static final long DEFAULT_WINDOW_MS = 500;
+
+    // Number of queued writes that are flushed right away, without waiting out the window
+    public static final int DEFAULT_MAX_ENTRIES = 50;
+
+    private static PetWriteBehindQueue sInstance;
+
+    private final ContentResolver mResolver;
+    private final long mWindowMs;
+    private final int mMaxEntries;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // Writes waiting for the next flush, guarded by itself
+    private final List<Entry> mPending = new ArrayList<Entry>();
+    private boolean mFlushPosted = false;
+
+    // Metrics of the flushes, only ever written on the writer thread
+    private final AtomicLong mFlushCount = new AtomicLong();
+    private final AtomicLong mFlushedEntryCount = new AtomicLong();
+    private final AtomicLong mLargestBatchSize = new AtomicLong();
+    private final AtomicLong mTotalFlushTimeMs = new AtomicLong();
+    private final AtomicLong mSlowestFlushTimeMs = new AtomicLong();
+
+    /**
+     * Flushes the writes queued in the window that just ended.
+     */
+    private final Runnable mFlush = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            flush();
+        }
+    };
+
+    /**
+     * A queued write and the callback for its result.
+     */
+    private static class Entry
+    {
+        final ContentProviderOperation operation;
+        final PetAsyncWriter.Callback callback;
+
+        Entry(ContentProviderOperation operation, PetAsyncWriter.Callback callback)
+        {
+            this.operation = operation;
+            this.callback = callback;
+        }
+    }
+
+    public PetWriteBehindQueue(ContentResolver resolver, long windowMs, int maxEntries)
+    {
+        mResolver = resolver;
+        mWindowMs = windowMs;
+        mMaxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the queue all the activities of the app share.
+     */
+    public static synchronized PetWriteBehindQueue getInstance(Context context)
+    {
+        if (sInstance == null)
+        {
+            sInstance = new PetWriteBehindQueue(context.getApplicationContext().getContentResolver(),
+                    DEFAULT_WINDOW_MS, DEFAULT_MAX_ENTRIES);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queues saving a new pet. The callback, if there is one, is called on the main thread
+     * once the pet is written.
+     */
+    public void insert(Pet pet, PetAsyncWriter.Callback callback)
+    {
+        ContentValues values = PetRepository.toContentValues(pet, new ContentValues());
+        enqueue(new Entry(ContentProviderOperation.newInsert(PetEntry.CONTENT_URI)
+                .withValues(values)
+                .build(), callback));
+    }
+
+    /**
+     * Queues saving the changes to the pet with the given content URI. The callback, if there
+     * is one, is called on the main thread once the changes are written.
+     */
+    public void update(Uri petUri, Pet pet, PetAsyncWriter.Callback callback)
+    {
+        ContentValues values = PetRepository.toContentValues(pet, new ContentValues());
+        enqueue(new Entry(ContentProviderOperation.newUpdate(petUri)
+                .withValues(values)
+                .build(), callback));
+    }
+
+    private void enqueue(Entry entry)
+    {
+        boolean full;
+        synchronized (mPending)
+        {
+            mPending.add(entry);
+            full = mPending.size() >= mMaxEntries;
+            if (!full && !mFlushPosted)
+            {
+                mFlushPosted = true;
+                mHandler.postDelayed(mFlush, mWindowMs);
+            }
+        }
+
+        if (full)
+        {
+            flush();
+        }
+    }
+
+    /**
+     * Hands all the queued writes to the writer thread right away, without waiting for the
+     * window to end. Writes made after this are written after them.
+     */
+    public void flush()
+    {
+        final List<Entry> batch;
+        synchronized (mPending)
+        {
+            mHandler.removeCallbacks(mFlush);
+            mFlushPosted = false;
+            if (mPending.isEmpty())
+            {
+                return;
+            }
+            batch = new ArrayList<Entry>(mPending);
+            mPending.clear();
+        }
+
+        PetAsyncWriter.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                write(batch);
+            }
+        });
+    }
+
+    /**
+     * Writes the batch in a single transaction, on the writer thread. If the transaction
+     * fails, like when one of the pets is invalid, every write is retried on its own, so a
+     * single bad pet does not lose the rest of the batch.
+     */
+    private void write(List<Entry> batch)
+    {
+        long start = SystemClock.elapsedRealtime();
+
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(batch.size());
+        for (Entry entry : batch)
+        {
+            operations.add(entry.operation);
+        }
+
+        int[] rows = new int[batch.size()];
+        ContentProviderResult[] results = apply(operations);
+        if (results != null)
+        {
+            for (int i = 0; i < results.length; i++)
+            {
+                rows[i] = rowsOf(results[i]);
+            }
+        }
+        else
+        {
+            for (int i = 0; i < batch.size(); i++)
+            {
+                ArrayList<ContentProviderOperation> single = new ArrayList<ContentProviderOperation>(1);
+                single.add(operations.get(i));
+                results = apply(single);
+                rows[i] = results != null ? rowsOf(results[0]) : 0;
+            }
+        }
+
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        mFlushCount.incrementAndGet();
+        mFlushedEntryCount.addAndGet(batch.size());
+        mTotalFlushTimeMs.addAndGet(elapsed);
+        if (batch.size() > mLargestBatchSize.get())
+        {
+            mLargestBatchSize.set(batch.size());
+        }
+        if (elapsed > mSlowestFlushTimeMs.get())
+        {
+            mSlowestFlushTimeMs.set(elapsed);
+        }
+        if (PetLog.D) PetLog.d(LOG_TAG, "Flushed " + batch.size() + " writes in " + elapsed + " ms");
+
+        for (int i = 0; i < batch.size(); i++)
+        {
+            final PetAsyncWriter.Callback callback = batch.get(i).callback;
+            if (callback != null)
+            {
+                final int rowsAffected = rows[i];
+                mHandler.post(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        callback.onWriteComplete(rowsAffected);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Applies the operations in a single transaction. Returns their results, or null if the
+     * transaction failed and nothing was written.
+     */
+    private ContentProviderResult[] apply(ArrayList<ContentProviderOperation> operations)
+    {
+        try
+        {
+            return mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+        }
+        catch (Exception e)
+        {
+            if (PetLog.E) PetLog.e(LOG_TAG, "Unable to write " + operations.size() + " pets", e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of rows the result of an insert or an update wrote.
+     */
+    private static int rowsOf(ContentProviderResult result)
+    {
+        if (result.uri != null)
+        {
+            return 1;
+        }
+        return result.count != null ? result.count : 0;
+    }
+
+    /**
+     * Returns the number of batches that were flushed so far.
+     */
+    public long getFlushCount()
+    {
+        return mFlushCount.get();
+    }
+
+    /**
+     * Returns the number of writes that were flushed so far, over all the batches.
+     */
+    public long getFlushedEntryCount()
+    {
+        return mFlushedEntryCount.get();
+    }
+
+    /**
+     * Returns the number of writes in the largest batch flushed so far.
+     */
+    public long getLargestBatchSize()
+    {
+        return mLargestBatchSize.get();
+    }
+
+    /**
+     * Returns the time all the flushes took so far, in milliseconds.
+     */
+    public long getTotalFlushTimeMs()
+    {
+        return mTotalFlushTimeMs.get();
+    }
+
+    /**
+     * Returns the time the slowest flush took, in milliseconds.
+     */
+    public long getSlowestFlushTimeMs()
+    {
+        return mSlowestFlushTimeMs.get();
+    }
+}